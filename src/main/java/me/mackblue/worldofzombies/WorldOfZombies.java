@@ -62,6 +62,8 @@ public class WorldOfZombies extends JavaPlugin {
             commandHandler.registerMultiArgCommand(blockDatabaseCommands, "", "Confirms a previous database command", "database", "confirm");
             commandHandler.registerMultiArgCommand(blockDatabaseCommands, " [world]", "Deletes the custom block database for a world", "database", "delete");
             commandHandler.registerMultiArgCommand(blockDatabaseCommands, " [world1] [world2]", "Clones the database from  world1  to  world2", "database", "clone");
+            commandHandler.registerMultiArgCommand(blockDatabaseCommands, " [world] [yaml|region|sqlite]", "Converts the database for a world to a different storage format", "database", "migrate");
+            commandHandler.registerMultiArgCommand(blockDatabaseCommands, "", "Shows custom block cache and prefetch statistics", "database", "stats");
 
             getCustomItemCommand = new GetCustomItemCommand(this, customBlockEvents);
             commandHandler.registerCommand("get", getCustomItemCommand, " [id] (amount)", "Gives the player the item specified in a custom block's \"item\" definition tag");
@@ -72,7 +74,7 @@ public class WorldOfZombies extends JavaPlugin {
         sCommandTab = new SCommandTab(this, customBlockEvents);
         getCommand("worldofzombies").setExecutor(new SCommand(this, commandHandler));
         getCommand("worldofzombies").setTabCompleter(sCommandTab);
-        getCommand("woztest").setExecutor(new TestCommand(this, pm));
+        getCommand("woztest").setExecutor(new TestCommand(this, pm, customBlockEvents));
 
         reload();
         console.info(ChatColor.GREEN + "World of Zombies custom plugin enabled successfully!");
@@ -81,6 +83,9 @@ public class WorldOfZombies extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        if (customBlockEvents != null) {
+            customBlockEvents.getCustomBlockHelper().getDatabase().close();
+        }
         console.info(ChatColor.GREEN + "World of Zombies custom plugin disabled successfully!");
     }
 
@@ -108,6 +113,10 @@ public class WorldOfZombies extends JavaPlugin {
         return customBlocksEnabled;
     }
 
+    public CustomBlockEvents getCustomBlockEvents() {
+        return customBlockEvents;
+    }
+
     //creates and loads core config files
     public void createConfigs() {
         if (!getDataFolder().exists()) {
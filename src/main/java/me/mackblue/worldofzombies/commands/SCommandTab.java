@@ -1,6 +1,7 @@
 package me.mackblue.worldofzombies.commands;
 
 import me.mackblue.worldofzombies.WorldOfZombies;
+import me.mackblue.worldofzombies.modules.customblocks.CustomBlockDatabase;
 import me.mackblue.worldofzombies.modules.customblocks.CustomBlockEvents;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -40,9 +41,12 @@ public class SCommandTab implements TabCompleter {
     public List<String> onTabComplete(CommandSender sender, Command cmd, String alias, String[] args) {
         List<String> completions = new ArrayList<>();
         if (args.length == 2 && args[0].equalsIgnoreCase("database") && main.isCustomBlocksEnabled()) {
-            completions = new ArrayList<>(Arrays.asList("delete", "clone", "confirm"));
+            completions = new ArrayList<>(Arrays.asList("delete", "clone", "confirm", "migrate", "stats"));
             completions = getApplicableTabCompleter(args[1], completions, args[0], sender);
 
+        } else if (args.length == 4 && args[0].equalsIgnoreCase("database") && args[1].equalsIgnoreCase("migrate") && main.isCustomBlocksEnabled()) {
+            completions = getApplicableTabCompleter(args[3], new ArrayList<>(CustomBlockDatabase.FORMATS), args[0], sender);
+
         } else if (args.length == 2 && args[0].equalsIgnoreCase("get") && main.isCustomBlocksEnabled()) {
             completions = getApplicableTabCompleter(args[1], customItems, args[0], sender);
 
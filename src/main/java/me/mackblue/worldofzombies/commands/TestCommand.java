@@ -10,7 +10,8 @@ import com.comphenix.protocol.wrappers.WrappedParticle;
 import com.destroystokyo.paper.entity.ai.*;
 import de.tr7zw.nbtapi.NBTItem;
 import me.mackblue.worldofzombies.WorldOfZombies;
-import me.mackblue.worldofzombies.modules.customblocks.CustomBlockEvents;
+import me.mackblue.worldofzombies.modules.customblocks.*;
+import me.mackblue.worldofzombies.util.BlockStateCache;
 import org.bukkit.*;
 import org.bukkit.block.Block;
 import org.bukkit.command.Command;
@@ -24,9 +25,11 @@ import org.bukkit.entity.Zombie;
 import org.bukkit.inventory.ItemStack;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Random;
 import java.util.logging.Logger;
 
 public class TestCommand implements CommandExecutor {
@@ -34,11 +37,13 @@ public class TestCommand implements CommandExecutor {
     private final WorldOfZombies main;
     private final Logger console;
     private final ProtocolManager pm;
+    private final CustomBlockEvents customBlockEvents;
 
-    public TestCommand(WorldOfZombies main, ProtocolManager pm) {
+    public TestCommand(WorldOfZombies main, ProtocolManager pm, CustomBlockEvents customBlockEvents) {
         this.main = main;
         this.console = main.getLogger();
         this.pm = pm;
+        this.customBlockEvents = customBlockEvents;
     }
 
     @Override
@@ -50,6 +55,11 @@ public class TestCommand implements CommandExecutor {
             }
 
             Player player = (Player) sender;
+            if (args.length == 1 && args[0].equalsIgnoreCase("mbc")) {
+                benchmarkMultiBlockChange(player);
+                return true;
+            }
+
             World world = player.getWorld();
             Chunk chunk = player.getChunk();
             Location loc = player.getLocation();
@@ -123,6 +133,75 @@ public class TestCommand implements CommandExecutor {
         return true;
     }
 
+    //measures the per-packet cost of the MultiBlockChange listener for 64-block packets in a subChunk with no logged blocks, a sparse subChunk (1 in 16 blocks logged), and a fully logged subChunk
+    //the chunk is only built in memory, and uses the first custom block whose disguise does not depend on the real block, logged with its current disguise hash so nothing is queued for recalculation
+    private void benchmarkMultiBlockChange(Player player) {
+        if (customBlockEvents == null) {
+            player.sendMessage(ChatColor.RED + "The custom blocks module is disabled");
+            return;
+        }
+
+        CustomBlockRegistry registry = customBlockEvents.getRegistry();
+        LoggedBlock loggedBlock = null;
+        for (String id : registry.getDefinedIds()) {
+            CustomBlockDefinition definition = registry.getDefinition(id);
+            ParsedBlockData disguisedBlock = definition.getBlockData(true, false);
+            if (!definition.hasStateDependentDisguise() && disguisedBlock != null && customBlockEvents.getDisguiseData(disguisedBlock.getSource()) != null) {
+                loggedBlock = new LoggedBlock(id, false, disguisedBlock.getSource(), definition.getDisguiseHash());
+                break;
+            }
+        }
+        if (loggedBlock == null) {
+            player.sendMessage(ChatColor.RED + "The benchmark needs a custom block with a valid \"disguised-block\" and no sync-states or match-states");
+            return;
+        }
+
+        //subChunk 0 is empty, 1 is sparse, and 2 is dense
+        LoggedChunk chunk = new LoggedChunk(player.getWorld().getName(), 0, 0);
+        for (int index = 0; index < PalettedSection.SIZE; index++) {
+            if (index % 16 == 0) {
+                chunk.put(chunk.getX(index), chunk.getY(1, index), chunk.getZ(index), loggedBlock);
+            }
+            chunk.put(chunk.getX(index), chunk.getY(2, index), chunk.getZ(index), loggedBlock);
+        }
+        LoggedChunkSnapshot snapshot = chunk.getSnapshot();
+
+        Random random = new Random(0);
+        short[] locations = new short[64];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = (short) random.nextInt(PalettedSection.SIZE);
+        }
+        Object[] states = BlockStateCache.newHandleArray(locations.length);
+        Arrays.fill(states, BlockStateCache.getHandle(Material.STONE.createBlockData()));
+        //each iteration edits a copy of the states in a preallocated array, so no allocation is timed
+        Object[] packetStates = BlockStateCache.newHandleArray(locations.length);
+
+        String[] names = {"empty", "sparse", "dense"};
+        for (int subChunkY = 0; subChunkY < names.length; subChunkY++) {
+            int iterations = 100000;
+            int edited = 0;
+            long before = 0;
+            //the first iterations are a warm-up and are not timed
+            for (int i = -10000; i < iterations; i++) {
+                if (i == 0) {
+                    before = System.nanoTime();
+                    edited = 0;
+                }
+
+                long[] occupancy = snapshot.getOccupancy(subChunkY);
+                if (occupancy != null) {
+                    System.arraycopy(states, 0, packetStates, 0, states.length);
+                    edited += customBlockEvents.disguiseSection(player.getWorld(), snapshot.getSection(subChunkY), occupancy, 0, subChunkY, 0, locations, packetStates);
+                }
+            }
+            double nanos = (double) (System.nanoTime() - before) / iterations;
+
+            String message = String.format("MultiBlockChange %s subChunk: %.0f ns per packet, %.1f of %d blocks edited per packet", names[subChunkY], nanos, (double) edited / iterations, locations.length);
+            console.info(ChatColor.GREEN + message);
+            player.sendMessage(ChatColor.GREEN + message);
+        }
+    }
+
     static class ZombieTargetOtherGoal implements Goal<Zombie> {
         private final GoalKey<Zombie> key;
         private final Mob self;
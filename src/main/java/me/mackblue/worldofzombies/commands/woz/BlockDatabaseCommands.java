@@ -2,14 +2,19 @@ package me.mackblue.worldofzombies.commands.woz;
 
 import me.mackblue.worldofzombies.WorldOfZombies;
 import me.mackblue.worldofzombies.commands.SubCommand;
-import org.apache.commons.io.FileUtils;
+import me.mackblue.worldofzombies.modules.customblocks.ChunkDisguiseCache;
+import me.mackblue.worldofzombies.modules.customblocks.ChunkPrefetcher;
+import me.mackblue.worldofzombies.modules.customblocks.CustomBlockDatabase;
+import me.mackblue.worldofzombies.modules.customblocks.CustomBlockEvents;
+import me.mackblue.worldofzombies.modules.customblocks.DisguiseRecalculator;
+import me.mackblue.worldofzombies.modules.customblocks.DisguiseTransformCache;
+import me.mackblue.worldofzombies.modules.customblocks.SentDisguiseTracker;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.logging.Logger;
 
@@ -19,7 +24,7 @@ public class BlockDatabaseCommands implements SubCommand {
     private final Logger console;
     private final HashMap<CommandSender, String> confirmMap;
 
-    private int deleteScheduler, cloneScheduler;
+    private int deleteScheduler, cloneScheduler, migrateScheduler;
 
     public BlockDatabaseCommands(WorldOfZombies main) {
         this.main = main;
@@ -35,6 +40,35 @@ public class BlockDatabaseCommands implements SubCommand {
                 throw new IllegalArgumentException("Invalid command");
             }
 
+            //stats command, which does not cancel a command that is waiting to be confirmed
+            if (args[0].equalsIgnoreCase("stats")) {
+                if (args.length != 1) {
+                    throw new IllegalArgumentException("database,stats");
+                }
+
+                CustomBlockEvents events = main.getCustomBlockEvents();
+                ChunkDisguiseCache cache = events.getCustomBlockHelper().getDisguiseCache();
+                ChunkPrefetcher prefetcher = events.getPrefetcher();
+                long lookups = cache.getHits() + cache.getMisses();
+                sender.sendMessage(ChatColor.AQUA + "Indexed chunks: " + ChatColor.YELLOW + events.getCustomBlockHelper().getDatabase().getIndexSize());
+                sender.sendMessage(ChatColor.AQUA + "Cached chunk disguises: " + ChatColor.YELLOW + cache.size() + ChatColor.AQUA + ", hits: " + ChatColor.YELLOW + cache.getHits() + ChatColor.AQUA + ", misses: " + ChatColor.YELLOW + cache.getMisses()
+                        + ChatColor.AQUA + " (" + ChatColor.YELLOW + (lookups == 0 ? "0.0" : String.format("%.1f", cache.getHits() * 100.0 / lookups)) + "%" + ChatColor.AQUA + " hit rate)");
+                DisguiseTransformCache transforms = events.getCustomBlockHelper().getTransformCache();
+                long transformLookups = transforms.getHits() + transforms.getMisses();
+                sender.sendMessage(ChatColor.AQUA + "Cached block disguises: " + ChatColor.YELLOW + transforms.size() + ChatColor.AQUA + "/" + ChatColor.YELLOW + transforms.getMaxSize() + ChatColor.AQUA + ", hits: " + ChatColor.YELLOW + transforms.getHits() + ChatColor.AQUA + ", misses: " + ChatColor.YELLOW + transforms.getMisses()
+                        + ChatColor.AQUA + " (" + ChatColor.YELLOW + (transformLookups == 0 ? "0.0" : String.format("%.1f", transforms.getHits() * 100.0 / transformLookups)) + "%" + ChatColor.AQUA + " hit rate), evicted: " + ChatColor.YELLOW + transforms.getEvictions());
+                sender.sendMessage(ChatColor.AQUA + "Prefetch distance: " + ChatColor.YELLOW + prefetcher.getDistance() + ChatColor.AQUA + ", prefetched chunks: " + ChatColor.YELLOW + prefetcher.getRequested() + ChatColor.AQUA + ", used: " + ChatColor.YELLOW + cache.getPrefetchHits()
+                        + ChatColor.AQUA + ", unused: " + ChatColor.YELLOW + cache.getUnusedPrefetches() + ChatColor.AQUA + ", never loaded: " + ChatColor.YELLOW + prefetcher.getExpired());
+                sender.sendMessage(ChatColor.AQUA + "Chunks waiting to be sent: " + ChatColor.YELLOW + events.getSendQueue().size());
+                DisguiseRecalculator recalculator = events.getRecalculator();
+                sender.sendMessage(ChatColor.AQUA + "Chunks waiting for changed definitions to be recalculated: " + ChatColor.YELLOW + recalculator.size() + ChatColor.AQUA + ", recalculated chunks: " + ChatColor.YELLOW + recalculator.getRecalculatedChunks()
+                        + ChatColor.AQUA + ", recalculated blocks: " + ChatColor.YELLOW + recalculator.getRecalculatedBlocks());
+                SentDisguiseTracker sent = events.getSentDisguises();
+                sender.sendMessage(ChatColor.AQUA + "Tracked player chunks: " + ChatColor.YELLOW + sent.size() + ChatColor.AQUA + ", disguises skipped because the client already had them: " + ChatColor.YELLOW + sent.getSuppressed() + ChatColor.AQUA + " of " + ChatColor.YELLOW + sent.getChecked()
+                        + ChatColor.AQUA + " (" + ChatColor.YELLOW + (sent.getChecked() == 0 ? "0.0" : String.format("%.1f", sent.getSuppressed() * 100.0 / sent.getChecked())) + "%" + ChatColor.AQUA + ")");
+                return true;
+            }
+
             //confirm command logic which does most of the processing
             if (args[0].equalsIgnoreCase("confirm")) {
                 if (confirmMap.containsKey(sender)) {
@@ -42,23 +76,31 @@ public class BlockDatabaseCommands implements SubCommand {
                     String[] data = confirmedCommand.split(",");
                     String world = data[1];
 
+                    CustomBlockDatabase database = main.getCustomBlockEvents().getCustomBlockHelper().getDatabase();
+                    if (database.isBusy(world) || (data.length > 2 && database.isBusy(data[2]))) {
+                        sender.sendMessage(ChatColor.RED + "Another database command is still running for " + ChatColor.YELLOW + world + ChatColor.RED + "!");
+                        confirmMap.remove(sender);
+                        return true;
+                    }
                     File dir = new File(main.getDataFolder() + File.separator + "BlockDatabase" + File.separator + world);
 
                     //delete command
                     if (data[0].equalsIgnoreCase("delete")) {
                         if (dir.exists()) {
-                            try {
-                                FileUtils.deleteDirectory(dir);
-                                sender.sendMessage(ChatColor.GREEN + "The custom block database for " + world + " was successfully deleted!");
-                                if (!(sender instanceof Logger)) {
-                                    console.info(ChatColor.GREEN + "The custom block database for " + world + " was successfully deleted!");
-                                }
-                            } catch (IOException e) {
-                                sender.sendMessage(ChatColor.RED + "Could not delete the custom block database for " + world + " because an error occurred!");
-                                if (!(sender instanceof Logger)) {
-                                    console.severe(ChatColor.RED + "Could not delete the custom block database for " + world + " because an error occurred!");
+                            sender.sendMessage(ChatColor.AQUA + "Deleting the custom block database for " + ChatColor.YELLOW + world + ChatColor.AQUA + "...");
+                            database.deleteWorldAsync(world, message -> sendProgress(sender, message), success -> {
+                                if (success) {
+                                    sender.sendMessage(ChatColor.GREEN + "The custom block database for " + world + " was successfully deleted!");
+                                    if (!(sender instanceof Logger)) {
+                                        console.info(ChatColor.GREEN + "The custom block database for " + world + " was successfully deleted!");
+                                    }
+                                } else {
+                                    sender.sendMessage(ChatColor.RED + "Could not delete the custom block database for " + world + " because an error occurred!");
+                                    if (!(sender instanceof Logger)) {
+                                        console.severe(ChatColor.RED + "Could not delete the custom block database for " + world + " because an error occurred!");
+                                    }
                                 }
-                            }
+                            });
                         } else {
                             sender.sendMessage(ChatColor.RED + "Could not delete the custom block database for " + ChatColor.YELLOW + world + ChatColor.RED + " because its data folder does not exist!");
                             if (!(sender instanceof Logger)) {
@@ -74,33 +116,20 @@ public class BlockDatabaseCommands implements SubCommand {
                     else if (data[0].equalsIgnoreCase("clone")) {
                         String newWorld = data[2];
                         if (dir.exists()) {
-                            File newDir = new File(main.getDataFolder() + File.separator + "BlockDatabase" + File.separator + newWorld);
-                            if (newDir.exists()) {
-                                try {
-                                    FileUtils.deleteDirectory(newDir);
-                                } catch (IOException e) {
-                                    sender.sendMessage(ChatColor.RED + "Could not clone the custom block database for " + world + " because the database for " + newWorld + " could not be cleared!");
+                            sender.sendMessage(ChatColor.AQUA + "Cloning the custom block database from " + ChatColor.YELLOW + world + ChatColor.AQUA + " to " + ChatColor.YELLOW + newWorld + ChatColor.AQUA + "...");
+                            database.cloneWorldAsync(world, newWorld, message -> sendProgress(sender, message), success -> {
+                                if (success) {
+                                    sender.sendMessage(ChatColor.GREEN + "The custom block database for " + ChatColor.YELLOW + world + ChatColor.RED + " was successfully cloned to " + ChatColor.YELLOW + newWorld + ChatColor.RED + "!");
                                     if (!(sender instanceof Logger)) {
-                                        console.severe(ChatColor.RED + "Could not clone the custom block database for " + world + " because the database for " + newWorld + " could not be cleared!");
+                                        console.info(ChatColor.GREEN + "The custom block database for " + ChatColor.YELLOW + world + ChatColor.RED + " was successfully cloned to " + ChatColor.YELLOW + newWorld + ChatColor.RED + "!");
+                                    }
+                                } else {
+                                    sender.sendMessage(ChatColor.RED + "Could not clone the custom block database from " + ChatColor.YELLOW + world + ChatColor.RED + " to " + ChatColor.YELLOW + newWorld + ChatColor.RED + " because an error occurred!");
+                                    if (!(sender instanceof Logger)) {
+                                        console.severe(ChatColor.RED + "Could not clone the custom block database from " + ChatColor.YELLOW + world + ChatColor.RED + " to " + ChatColor.YELLOW + newWorld + ChatColor.RED + " because an error occurred!");
                                     }
-
-                                    confirmMap.remove(sender);
-                                    return true;
-                                }
-                            }
-
-                            try {
-                                FileUtils.copyDirectory(dir, newDir);
-                                sender.sendMessage(ChatColor.GREEN + "The custom block database for " + ChatColor.YELLOW + world + ChatColor.RED + " was successfully cloned to " + ChatColor.YELLOW + newWorld + ChatColor.RED + "!");
-                                if (!(sender instanceof Logger)) {
-                                    console.info(ChatColor.GREEN + "The custom block database for " + ChatColor.YELLOW + world + ChatColor.RED + " was successfully cloned to " + ChatColor.YELLOW + newWorld + ChatColor.RED + "!");
-                                }
-                            } catch (IOException e) {
-                                sender.sendMessage(ChatColor.RED + "Could not clone the custom block database from " + ChatColor.YELLOW + world + ChatColor.RED + " to " + ChatColor.YELLOW + newWorld + ChatColor.RED + " because an error occurred!");
-                                if (!(sender instanceof Logger)) {
-                                    console.severe(ChatColor.RED + "Could not clone the custom block database from " + ChatColor.YELLOW + world + ChatColor.RED + " to " + ChatColor.YELLOW + newWorld + ChatColor.RED + " because an error occurred!");
                                 }
-                            }
+                            });
                         } else {
                             sender.sendMessage(ChatColor.RED + "Could not clone the custom block database for " + ChatColor.YELLOW + world + ChatColor.RED + " because its data folder does not exist!");
                             if (!(sender instanceof Logger)) {
@@ -111,6 +140,16 @@ public class BlockDatabaseCommands implements SubCommand {
                         confirmMap.remove(sender);
                         return true;
                     }
+
+                    //migrate command
+                    else if (data[0].equalsIgnoreCase("migrate")) {
+                        String format = data[2];
+                        sender.sendMessage(ChatColor.AQUA + "Started migrating the custom block database for " + ChatColor.YELLOW + world + ChatColor.AQUA + " to the " + ChatColor.YELLOW + format + ChatColor.AQUA + " format");
+                        database.migrateWorld(world, format, message -> sendProgress(sender, message));
+
+                        confirmMap.remove(sender);
+                        return true;
+                    }
                 } else {
                     sender.sendMessage(ChatColor.RED + "You must run a different database command before confirming!");
                     return true;
@@ -131,6 +170,11 @@ public class BlockDatabaseCommands implements SubCommand {
                         Bukkit.getScheduler().cancelTask(cloneScheduler);
                         cloneScheduler = 0;
                     }
+
+                    if (migrateScheduler != 0) {
+                        Bukkit.getScheduler().cancelTask(migrateScheduler);
+                        migrateScheduler = 0;
+                    }
                     sender.sendMessage(ChatColor.RED + "Canceled the previous database " + ChatColor.YELLOW + prev + ChatColor.RED + " command!");
                 }
 
@@ -164,6 +208,31 @@ public class BlockDatabaseCommands implements SubCommand {
 
                     return true;
                 }
+
+                else if (args[0].equalsIgnoreCase("migrate")) {
+                    if (args.length != 3) {
+                        throw new IllegalArgumentException("database,migrate");
+                    }
+
+                    CustomBlockDatabase database = main.getCustomBlockEvents().getCustomBlockHelper().getDatabase();
+                    String format = args[2].toLowerCase();
+                    if (!CustomBlockDatabase.isValidFormat(format)) {
+                        sender.sendMessage(ChatColor.RED + "Invalid database format! Valid formats are: " + ChatColor.YELLOW + String.join(", ", CustomBlockDatabase.FORMATS));
+                        return true;
+                    }
+
+                    if (database.getFormat(args[1]).equals(format)) {
+                        sender.sendMessage(ChatColor.RED + "The custom block database for " + ChatColor.YELLOW + args[1] + ChatColor.RED + " already uses the " + ChatColor.YELLOW + format + ChatColor.RED + " format!");
+                        return true;
+                    }
+
+                    confirmMap.put(sender, "migrate," + args[1] + "," + format);
+                    sender.sendMessage(ChatColor.AQUA + "Are you sure you want to migrate the custom block database for " + ChatColor.YELLOW + args[1] + ChatColor.AQUA + " from the " + ChatColor.YELLOW + database.getFormat(args[1]) + ChatColor.AQUA + " format to the " + ChatColor.YELLOW + format + ChatColor.AQUA + " format? Any existing " + ChatColor.YELLOW + format + ChatColor.AQUA + " data for this world will be deleted. To confirm, run " + ChatColor.YELLOW + "/woz database confirm" + ChatColor.AQUA + " within the next 10 seconds");
+
+                    migrateScheduler = Bukkit.getScheduler().scheduleSyncDelayedTask(main, () -> confirmMap.remove(sender), 200L);
+
+                    return true;
+                }
             }
         } else {
             sender.sendMessage(ChatColor.RED + "You do not have permission to run this command!");
@@ -171,5 +240,16 @@ public class BlockDatabaseCommands implements SubCommand {
 
         throw new IllegalArgumentException("Invalid command");
     }
-}
 
+    //sends a progress message from a database thread to the sender on the main thread
+    private void sendProgress(CommandSender sender, String message) {
+        if (main.isEnabled()) {
+            Bukkit.getScheduler().runTask(main, () -> {
+                sender.sendMessage(ChatColor.AQUA + message);
+                if (!(sender instanceof Logger)) {
+                    console.info(ChatColor.AQUA + message);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+//disguise packet contents for each chunk, built once and shared by every player who is sent that chunk
+//entries are stored with the LoggedChunk version they were built from, so placing, un-logging, or moving a block makes them outdated automatically
+public class ChunkDisguiseCache {
+
+    //world name -> packed chunk coords -> cached disguises
+    private final Map<String, Map<Long, Entry>> entries;
+
+    //lookups when chunks are sent that found cached disguises (and how many of those were built by a prefetch) or had to build them
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    //prefetched disguises that were dropped before they were ever sent
+    private final LongAdder unusedPrefetches = new LongAdder();
+
+    public ChunkDisguiseCache() {
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    //returns the cached disguises for a chunk that is being sent, or null if there are none for this version of the chunk
+    public List<SectionDisguises> get(String worldName, int chunkX, int chunkZ, long version) {
+        Entry entry = getEntry(worldName, chunkX, chunkZ);
+        if (entry == null || entry.version != version) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        if (entry.prefetched && !entry.used) {
+            prefetchHits.increment();
+        }
+        entry.used = true;
+        return entry.sections;
+    }
+
+    //checks for cached disguises without counting it as a lookup
+    public boolean contains(String worldName, int chunkX, int chunkZ, long version) {
+        Entry entry = getEntry(worldName, chunkX, chunkZ);
+        return entry != null && entry.version == version;
+    }
+
+    private Entry getEntry(String worldName, int chunkX, int chunkZ) {
+        Map<Long, Entry> worldEntries = entries.get(worldName);
+        return worldEntries != null ? worldEntries.get(CustomBlockDatabase.getChunkKey(chunkX, chunkZ)) : null;
+    }
+
+    public void put(String worldName, int chunkX, int chunkZ, long version, List<SectionDisguises> sections, boolean prefetched) {
+        Entry previous = entries.computeIfAbsent(worldName, k -> new ConcurrentHashMap<>()).put(CustomBlockDatabase.getChunkKey(chunkX, chunkZ), new Entry(version, sections, prefetched));
+        countUnused(previous);
+    }
+
+    //drops the cached disguises for a chunk, like when it unloads
+    public void invalidate(String worldName, int chunkX, int chunkZ) {
+        Map<Long, Entry> worldEntries = entries.get(worldName);
+        if (worldEntries != null) {
+            countUnused(worldEntries.remove(CustomBlockDatabase.getChunkKey(chunkX, chunkZ)));
+        }
+    }
+
+    private void countUnused(Entry entry) {
+        if (entry != null && entry.prefetched && !entry.used) {
+            unusedPrefetches.increment();
+        }
+    }
+
+    //drops every cached disguise, which is needed when the custom block definitions are reloaded
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getPrefetchHits() {
+        return prefetchHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getUnusedPrefetches() {
+        return unusedPrefetches.sum();
+    }
+
+    private static class Entry {
+
+        private final long version;
+        private final List<SectionDisguises> sections;
+        private final boolean prefetched;
+        private volatile boolean used;
+
+        Entry(long version, List<SectionDisguises> sections, boolean prefetched) {
+            this.version = version;
+            this.sections = sections;
+            this.prefetched = prefetched;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import me.mackblue.worldofzombies.WorldOfZombies;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+//reads the custom block data and builds the disguise packets for the chunks just past a player's view distance in the direction they are moving,
+//so both are already in memory when the server sends those chunks, which replaces the old "chunkDirectionCheck" in CustomBlockHelper
+public class ChunkPrefetcher {
+
+    //prefetched chunks that the server did not load within this many milliseconds are dropped from the index again
+    private static final long EXPIRE_TIME = 30000;
+
+    private final WorldOfZombies main;
+    private final CustomBlockHelper helper;
+    private final CustomBlockDatabase database;
+    private final Logger console;
+
+    private int debug;
+    private int task;
+    private int distance;
+
+    //world name -> packed chunk coords -> time when a chunk that was not in the index was prefetched
+    private final Map<String, Map<Long, Long>> prefetched;
+
+    //chunks that were prefetched, and prefetched chunks that were dropped because the server never loaded them
+    private final LongAdder requested = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    public ChunkPrefetcher(WorldOfZombies main, CustomBlockHelper helper) {
+        this.main = main;
+        this.helper = helper;
+        this.database = helper.getDatabase();
+        this.console = main.getLogger();
+        this.prefetched = new ConcurrentHashMap<>();
+    }
+
+    //starts (or restarts) the task that drops expired prefetches, where "distance" is how many rows of chunks past the view distance are prefetched (0 disables prefetching)
+    public void start(int distance, int debug) {
+        this.distance = Math.max(distance, 0);
+        this.debug = debug;
+
+        if (task != 0) {
+            Bukkit.getScheduler().cancelTask(task);
+        }
+        task = Bukkit.getScheduler().scheduleSyncRepeatingTask(main, this::expire, 200, 200);
+    }
+
+    //prefetches the leading rows of chunks when a player moves from one chunk into a neighboring one (teleports are skipped, since there is no direction to predict)
+    public void playerMoved(World world, int fromX, int fromZ, int toX, int toZ) {
+        int dx = Integer.signum(toX - fromX);
+        int dz = Integer.signum(toZ - fromZ);
+        if (distance == 0 || (dx == 0 && dz == 0) || Math.abs(toX - fromX) > 1 || Math.abs(toZ - fromZ) > 1) {
+            return;
+        }
+
+        int viewDistance = Bukkit.getViewDistance();
+        for (int d = 1; d <= distance; d++) {
+            int edge = viewDistance + d;
+            for (int i = -edge; i <= edge; i++) {
+                if (dx != 0) {
+                    prefetch(world, toX + dx * edge, toZ + i);
+                }
+                //a diagonal move leads with both a column and a row, which share the corner chunk
+                if (dz != 0 && (dx == 0 || i != dx * edge)) {
+                    prefetch(world, toX + i, toZ + dz * edge);
+                }
+            }
+        }
+    }
+
+    //reads a chunk into the index on a worker thread, and then builds its disguise packets on the same thread
+    private void prefetch(World world, int chunkX, int chunkZ) {
+        String worldName = world.getName();
+        if (!database.mightHaveBlocks(worldName, chunkX, chunkZ)) {
+            return;
+        }
+        if (database.getIndexedChunk(worldName, chunkX, chunkZ) == null && !world.isChunkLoaded(chunkX, chunkZ)) {
+            prefetched.computeIfAbsent(worldName, k -> new ConcurrentHashMap<>()).putIfAbsent(CustomBlockDatabase.getChunkKey(chunkX, chunkZ), System.currentTimeMillis());
+        }
+        requested.increment();
+
+        try {
+            database.loadChunkAsync(worldName, chunkX, chunkZ).thenAcceptAsync(loaded -> {
+                LoggedChunk loggedChunk = database.getIndexedChunk(worldName, chunkX, chunkZ);
+                if (loggedChunk != null && !loggedChunk.isEmpty()) {
+                    helper.prefetchChunkDisguises(world, loggedChunk);
+                }
+            }, database.getLoadExecutor());
+        } catch (RejectedExecutionException e) {
+            //the database is closing, so there is nothing to prefetch into
+        }
+    }
+
+    //drops prefetched chunks that the server never loaded, since nothing else would remove them from the index
+    private void expire() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Map.Entry<String, Map<Long, Long>> worldEntry : prefetched.entrySet()) {
+            World world = Bukkit.getWorld(worldEntry.getKey());
+            for (Iterator<Map.Entry<Long, Long>> it = worldEntry.getValue().entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Long, Long> entry = it.next();
+                int chunkX = (int) (entry.getKey() >> 32);
+                int chunkZ = (int) (long) entry.getKey();
+                if (world != null && world.isChunkLoaded(chunkX, chunkZ)) {
+                    it.remove();
+                } else if (world == null || now - entry.getValue() > EXPIRE_TIME) {
+                    it.remove();
+                    database.unloadChunk(worldEntry.getKey(), chunkX, chunkZ);
+                    helper.getDisguiseCache().invalidate(worldEntry.getKey(), chunkX, chunkZ);
+                    count++;
+                }
+            }
+        }
+        expired.add(count);
+
+        if (debug >= 3 && count != 0) {
+            console.info(ChatColor.DARK_AQUA + "Dropped " + count + " prefetched chunks from the custom block index because they were never loaded");
+        }
+    }
+
+    public int getDistance() {
+        return distance;
+    }
+
+    public long getRequested() {
+        return requested.sum();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+}
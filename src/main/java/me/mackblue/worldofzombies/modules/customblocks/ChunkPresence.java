@@ -0,0 +1,109 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//set of the chunks in one world that may contain logged blocks, stored as one 1024-bit bitset per 32x32 chunk region
+//reads are lock-free so packet listeners can check it from any thread, and a chunk may be included after it becomes empty, but a chunk with logged blocks is never missing
+public class ChunkPresence {
+
+    private final Map<Long, AtomicLongArray> regions;
+
+    public ChunkPresence() {
+        this.regions = new ConcurrentHashMap<>();
+    }
+
+    //builds the set from packed chunk keys (see CustomBlockDatabase#getChunkKey)
+    public static ChunkPresence fromChunkKeys(Collection<Long> keys) {
+        ChunkPresence presence = new ChunkPresence();
+        for (long key : keys) {
+            presence.set((int) (key >> 32), (int) key, true);
+        }
+        return presence;
+    }
+
+    private static long getRegionKey(int chunkX, int chunkZ) {
+        return CustomBlockDatabase.getChunkKey(chunkX >> 5, chunkZ >> 5);
+    }
+
+    private static int getBit(int chunkX, int chunkZ) {
+        return (chunkZ & 31) << 5 | (chunkX & 31);
+    }
+
+    public boolean contains(int chunkX, int chunkZ) {
+        AtomicLongArray bits = regions.get(getRegionKey(chunkX, chunkZ));
+        if (bits == null) {
+            return false;
+        }
+        int bit = getBit(chunkX, chunkZ);
+        return (bits.get(bit >> 6) & 1L << (bit & 63)) != 0;
+    }
+
+    public void set(int chunkX, int chunkZ, boolean present) {
+        int bit = getBit(chunkX, chunkZ);
+        long mask = 1L << (bit & 63);
+        if (present) {
+            AtomicLongArray bits = regions.computeIfAbsent(getRegionKey(chunkX, chunkZ), k -> new AtomicLongArray(16));
+            bits.getAndUpdate(bit >> 6, value -> value | mask);
+        } else {
+            AtomicLongArray bits = regions.get(getRegionKey(chunkX, chunkZ));
+            if (bits != null) {
+                bits.getAndUpdate(bit >> 6, value -> value & ~mask);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (AtomicLongArray bits : regions.values()) {
+            for (int i = 0; i < bits.length(); i++) {
+                size += Long.bitCount(bits.get(i));
+            }
+        }
+        return size;
+    }
+
+    //layout: region count, then the packed region coords and 16 longs of bits for each region that has any chunks
+    public void write(DataOutputStream out) throws IOException {
+        Map<Long, long[]> nonEmpty = new ConcurrentHashMap<>();
+        regions.forEach((regionKey, bits) -> {
+            long[] copy = new long[16];
+            boolean empty = true;
+            for (int i = 0; i < 16; i++) {
+                copy[i] = bits.get(i);
+                empty &= copy[i] == 0;
+            }
+            if (!empty) {
+                nonEmpty.put(regionKey, copy);
+            }
+        });
+
+        out.writeInt(nonEmpty.size());
+        for (Map.Entry<Long, long[]> entry : nonEmpty.entrySet()) {
+            out.writeLong(entry.getKey());
+            for (long value : entry.getValue()) {
+                out.writeLong(value);
+            }
+        }
+        out.flush();
+    }
+
+    public static ChunkPresence read(DataInputStream in) throws IOException {
+        ChunkPresence presence = new ChunkPresence();
+        int regionCount = in.readInt();
+        for (int i = 0; i < regionCount; i++) {
+            long regionKey = in.readLong();
+            long[] bits = new long[16];
+            for (int j = 0; j < 16; j++) {
+                bits[j] = in.readLong();
+            }
+            presence.regions.put(regionKey, new AtomicLongArray(bits));
+        }
+        return presence;
+    }
+}
@@ -0,0 +1,790 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import me.mackblue.worldofzombies.WorldOfZombies;
+import me.mackblue.worldofzombies.modules.customblocks.storage.CustomBlockStore;
+import me.mackblue.worldofzombies.modules.customblocks.storage.RegionFileStore;
+import me.mackblue.worldofzombies.modules.customblocks.storage.SQLiteStore;
+import me.mackblue.worldofzombies.modules.customblocks.storage.StoreMigration;
+import me.mackblue.worldofzombies.modules.customblocks.storage.YamlChunkStore;
+import me.mackblue.worldofzombies.util.DirectoryTransfer;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+public class CustomBlockDatabase {
+
+    public static final List<String> FORMATS = Arrays.asList("yaml", "region", "sqlite");
+    //file in a world's database folder which records the format that folder was migrated to
+    public static final String FORMAT_FILE = "database-format.txt";
+    //file in a world's database folder with its ChunkPresence, which only exists between a clean shutdown and the next time the world is used
+    public static final String PRESENCE_FILE = "presence.dat";
+
+    private final WorldOfZombies main;
+    private final Logger console;
+
+    private int debug;
+    private final String defaultFormat;
+    private final Map<String, String> worldFormats;
+    private int saveTask;
+
+    //world name -> packed chunk coords -> resident copy of that chunk's database file
+    private final Map<String, Map<Long, LoggedChunk>> loadedChunks;
+    //world name -> open storage backend for that world
+    private final Map<String, CustomBlockStore> stores;
+    //world name -> chunks that may contain logged blocks, used to skip chunks without any I/O
+    private final Map<String, ChunkPresence> presence;
+
+    //chunks with changes that have not been queued for saving yet
+    private final Set<LoggedChunk> dirtyChunks;
+    //world name -> packed chunk coords -> chunks that are dirty or currently being saved, which are used instead of the file if the chunk is loaded again
+    private final Map<String, Map<Long, LoggedChunk>> unsavedChunks;
+    private final ExecutorService ioExecutor;
+    //worlds whose folders are being deleted, replaced, or migrated, which are not saved until that finishes (and not read either, unless they are being migrated)
+    private final Set<String> busyWorlds;
+    //busy worlds whose data is being converted to another format, which are still read from their old store during the migration
+    private final Set<String> migratingWorlds;
+    //held while a store is read from, and exclusively while a store is closed, so loader threads never read from a store that is being closed
+    private final ReadWriteLock storeLock;
+
+    //world name -> packed chunk coords -> reads that were started when the chunk loaded and have not been indexed yet
+    private final Map<String, Map<Long, CompletableFuture<LoggedChunk>>> pendingLoads;
+    private final ExecutorService loadExecutor;
+    //maximum number of indexed chunks before the least recently used ones are dropped (0 means no limit), and the clock used to track their use
+    private int maxLoadedChunks;
+    private volatile long accessClock;
+
+    //the storage formats are read once here, so changing them requires a restart
+    public CustomBlockDatabase(WorldOfZombies main, ConfigurationSection customBlockConfig) {
+        this.main = main;
+        this.console = main.getLogger();
+        this.loadedChunks = new ConcurrentHashMap<>();
+        this.stores = new ConcurrentHashMap<>();
+        this.presence = new ConcurrentHashMap<>();
+        this.dirtyChunks = ConcurrentHashMap.newKeySet();
+        this.unsavedChunks = new HashMap<>();
+        this.ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WorldOfZombies-BlockDatabase-IO");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pendingLoads = new ConcurrentHashMap<>();
+        this.busyWorlds = ConcurrentHashMap.newKeySet();
+        this.migratingWorlds = ConcurrentHashMap.newKeySet();
+        this.storeLock = new ReentrantReadWriteLock();
+        this.loadExecutor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "WorldOfZombies-BlockDatabase-Load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.defaultFormat = readDefaultFormat(customBlockConfig);
+        this.worldFormats = readWorldFormats(customBlockConfig);
+    }
+
+    public void setDebug(int debug) {
+        this.debug = debug;
+    }
+
+    //the threads that read chunks for loadChunkAsync(), which can also be used for other work on chunks that were just read
+    public Executor getLoadExecutor() {
+        return loadExecutor;
+    }
+
+    public void setMaxLoadedChunks(int maxLoadedChunks) {
+        this.maxLoadedChunks = Math.max(maxLoadedChunks, 0);
+    }
+
+    //packs chunk coords into a single key for the chunk index
+    public static long getChunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public File getWorldFolder(String worldName) {
+        return new File(main.getDataFolder() + File.separator + "BlockDatabase" + File.separator + worldName);
+    }
+
+    //gets the resident data for a chunk, waiting for its read if one was started when the chunk loaded, or reading it now if the chunk has not been indexed yet
+    public LoggedChunk getChunk(String worldName, int chunkX, int chunkZ) {
+        long key = getChunkKey(chunkX, chunkZ);
+        LoggedChunk chunk = loadedChunks.computeIfAbsent(worldName, k -> new ConcurrentHashMap<>()).get(key);
+        if (chunk == null) {
+            Map<Long, CompletableFuture<LoggedChunk>> worldPending = pendingLoads.get(worldName);
+            CompletableFuture<LoggedChunk> pending = worldPending != null ? worldPending.get(key) : null;
+            try {
+                chunk = pending != null ? pending.join() : null;
+                chunk = chunk != null ? finishLoad(worldName, key, pending, chunk) : loadChunk(worldName, chunkX, chunkZ);
+            } catch (CompletionException e) {
+                console.severe(ChatColor.RED + "An error occurred while reading the custom block data for the chunk at " + worldName + ", " + chunkX + ", " + chunkZ + ", so it will be read again: " + e.getCause());
+                chunk = loadChunk(worldName, chunkX, chunkZ);
+            }
+        }
+        chunk.setLastAccess(accessClock);
+        return chunk;
+    }
+
+    public LoggedChunk getChunk(Location loc) {
+        return getChunk(loc.getWorld().getName(), loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+    }
+
+    public LoggedBlock getBlock(Location loc) {
+        return getChunk(loc).get(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+    }
+
+    //returns the latest snapshot of an indexed chunk without reading, waiting, or locking, or null if the chunk has not been indexed yet
+    //this is safe to call from packet threads, and does not count as a use of the chunk for the memory cap
+    public LoggedChunkSnapshot getSnapshot(String worldName, int chunkX, int chunkZ) {
+        LoggedChunk chunk = getIndexedChunk(worldName, chunkX, chunkZ);
+        return chunk != null ? chunk.getSnapshot() : null;
+    }
+
+    //returns an indexed chunk without reading or waiting for it, or null if the chunk has not been indexed yet
+    public LoggedChunk getIndexedChunk(String worldName, int chunkX, int chunkZ) {
+        Map<Long, LoggedChunk> worldChunks = loadedChunks.get(worldName);
+        return worldChunks != null ? worldChunks.get(getChunkKey(chunkX, chunkZ)) : null;
+    }
+
+    //returns a copy of the list of indexed chunks in a world, which can be iterated while chunks are indexed and dropped
+    public List<LoggedChunk> getIndexedChunks(String worldName) {
+        Map<Long, LoggedChunk> worldChunks = loadedChunks.get(worldName);
+        return worldChunks != null ? new ArrayList<>(worldChunks.values()) : new ArrayList<>();
+    }
+
+    //reads the stored data for a chunk into the index, replacing any data that was already indexed for that chunk
+    //if the chunk still has changes that have not been written yet, those are indexed instead of the file's contents
+    public LoggedChunk loadChunk(String worldName, int chunkX, int chunkZ) {
+        LoggedChunk chunk;
+        synchronized (unsavedChunks) {
+            Map<Long, LoggedChunk> worldUnsaved = unsavedChunks.get(worldName);
+            chunk = worldUnsaved != null ? worldUnsaved.get(getChunkKey(chunkX, chunkZ)) : null;
+        }
+        if (chunk == null) {
+            ChunkPresence worldPresence = getPresence(worldName);
+            if (worldPresence.contains(chunkX, chunkZ)) {
+                chunk = readChunkFile(worldName, chunkX, chunkZ);
+                if (chunk.isEmpty()) {
+                    worldPresence.set(chunkX, chunkZ, false);
+                }
+            } else {
+                chunk = new LoggedChunk(worldName, chunkX, chunkZ);
+            }
+        }
+        loadedChunks.computeIfAbsent(worldName, k -> new ConcurrentHashMap<>()).put(getChunkKey(chunkX, chunkZ), chunk);
+        return chunk;
+    }
+
+    public LoggedChunk loadChunk(Chunk chunk) {
+        return loadChunk(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+    }
+
+    //starts reading a chunk into the index on a loader thread when the chunk loads, so the data is usually ready before the chunk is sent to players
+    //chunks that are known to be empty or still have unsaved changes are indexed immediately without a read
+    //returns a future which completes once the chunk is indexed, or with null if the read could not be started
+    public CompletableFuture<LoggedChunk> loadChunkAsync(String worldName, int chunkX, int chunkZ) {
+        long key = getChunkKey(chunkX, chunkZ);
+        Map<Long, LoggedChunk> worldChunks = loadedChunks.computeIfAbsent(worldName, k -> new ConcurrentHashMap<>());
+        Map<Long, CompletableFuture<LoggedChunk>> worldPending = pendingLoads.computeIfAbsent(worldName, k -> new ConcurrentHashMap<>());
+        LoggedChunk indexed = worldChunks.get(key);
+        if (indexed != null) {
+            return CompletableFuture.completedFuture(indexed);
+        }
+        CompletableFuture<LoggedChunk> pending = worldPending.get(key);
+        if (pending != null) {
+            return pending;
+        }
+
+        boolean unsaved;
+        synchronized (unsavedChunks) {
+            Map<Long, LoggedChunk> worldUnsaved = unsavedChunks.get(worldName);
+            unsaved = worldUnsaved != null && worldUnsaved.containsKey(key);
+        }
+        if (unsaved || !mightHaveBlocks(worldName, chunkX, chunkZ)) {
+            return CompletableFuture.completedFuture(loadChunk(worldName, chunkX, chunkZ));
+        }
+
+        CompletableFuture<LoggedChunk> future = new CompletableFuture<>();
+        worldPending.put(key, future);
+        try {
+            loadExecutor.execute(() -> {
+                try {
+                    LoggedChunk chunk = readChunkFile(worldName, chunkX, chunkZ);
+                    future.complete(finishLoad(worldName, key, future, chunk));
+                } catch (RuntimeException e) {
+                    worldPending.remove(key, future);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            worldPending.remove(key, future);
+            future.complete(null);
+        }
+        return future;
+    }
+
+    public CompletableFuture<LoggedChunk> loadChunkAsync(Chunk chunk) {
+        return loadChunkAsync(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+    }
+
+    //indexes the result of an asynchronous read unless the chunk was unloaded (or its world was reloaded) while it was being read
+    private LoggedChunk finishLoad(String worldName, long key, CompletableFuture<LoggedChunk> future, LoggedChunk chunk) {
+        Map<Long, CompletableFuture<LoggedChunk>> worldPending = pendingLoads.get(worldName);
+        if (worldPending != null && worldPending.remove(key, future)) {
+            if (chunk.isEmpty()) {
+                getPresence(worldName).set(chunk.getChunkX(), chunk.getChunkZ(), false);
+            }
+            LoggedChunk existing = loadedChunks.computeIfAbsent(worldName, k -> new ConcurrentHashMap<>()).putIfAbsent(key, chunk);
+            return existing != null ? existing : chunk;
+        }
+
+        Map<Long, LoggedChunk> worldChunks = loadedChunks.get(worldName);
+        LoggedChunk existing = worldChunks != null ? worldChunks.get(key) : null;
+        return existing != null ? existing : chunk;
+    }
+
+    //removes a chunk from the index when it unloads, cancelling its read if it has not finished and queueing its changes to be saved
+    public void unloadChunk(Chunk chunk) {
+        unloadChunk(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+    }
+
+    public void unloadChunk(String worldName, int chunkX, int chunkZ) {
+        long key = getChunkKey(chunkX, chunkZ);
+
+        Map<Long, CompletableFuture<LoggedChunk>> worldPending = pendingLoads.get(worldName);
+        if (worldPending != null) {
+            worldPending.remove(key);
+        }
+
+        Map<Long, LoggedChunk> worldChunks = loadedChunks.get(worldName);
+        if (worldChunks != null) {
+            LoggedChunk loggedChunk = worldChunks.remove(key);
+            if (loggedChunk != null && !busyWorlds.contains(worldName) && dirtyChunks.remove(loggedChunk)) {
+                queueSave(loggedChunk);
+            }
+        }
+    }
+
+    //returns the number of chunks in the index across every world
+    public int getIndexSize() {
+        int loaded = 0;
+        for (Map<Long, LoggedChunk> worldChunks : loadedChunks.values()) {
+            loaded += worldChunks.size();
+        }
+        return loaded;
+    }
+
+    //drops the least recently used chunks from the index until it is below 90% of "database-max-loaded-chunks"
+    //chunks that are loaded in their world are never dropped, since the packet listeners only read indexed chunks, so the limit can only be reached by dropping chunks
+    //that are not loaded anymore (like prefetched chunks), and the loaded chunks can keep the index above it
+    //dropped chunks are read again the next time they are used, and changes are kept because unsaved chunks are read from memory instead of the store
+    public int enforceMemoryCap() {
+        accessClock++;
+        if (maxLoadedChunks <= 0) {
+            return 0;
+        }
+
+        int loaded = getIndexSize();
+        if (loaded <= maxLoadedChunks) {
+            return 0;
+        }
+
+        List<LoggedChunk> chunks = new ArrayList<>(loaded);
+        for (Map.Entry<String, Map<Long, LoggedChunk>> worldEntry : loadedChunks.entrySet()) {
+            World world = Bukkit.getWorld(worldEntry.getKey());
+            for (LoggedChunk chunk : worldEntry.getValue().values()) {
+                if (world == null || !world.isChunkLoaded(chunk.getChunkX(), chunk.getChunkZ())) {
+                    chunks.add(chunk);
+                }
+            }
+        }
+        chunks.sort(Comparator.comparingLong(LoggedChunk::getLastAccess));
+
+        int toEvict = Math.min(loaded - maxLoadedChunks * 9 / 10, chunks.size());
+        for (int i = 0; i < toEvict; i++) {
+            LoggedChunk chunk = chunks.get(i);
+            Map<Long, LoggedChunk> worldChunks = loadedChunks.get(chunk.getWorldName());
+            if (worldChunks != null) {
+                worldChunks.remove(getChunkKey(chunk.getChunkX(), chunk.getChunkZ()), chunk);
+            }
+        }
+
+        if (debug >= 2 && toEvict != 0) {
+            console.info(ChatColor.DARK_AQUA + "Dropped " + toEvict + " least recently used unloaded chunks from the custom block index because it had more than " + maxLoadedChunks + " chunks");
+        }
+        return toEvict;
+    }
+
+    //indexes every chunk that is currently loaded in every world (used on startup, when chunks were loaded before the listeners were registered)
+    public void indexLoadedChunks() {
+        int count = 0;
+        for (World world : Bukkit.getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                loadChunkAsync(chunk);
+                count++;
+            }
+        }
+
+        if (debug >= 2) {
+            console.info(ChatColor.DARK_AQUA + "Indexed the custom block database for " + count + " loaded chunks");
+        }
+    }
+
+    //marks a chunk as changed so it will be written by the next flush, merging it with any other changes before then
+    public void markDirty(LoggedChunk chunk) {
+        getPresence(chunk.getWorldName()).set(chunk.getChunkX(), chunk.getChunkZ(), !chunk.isEmpty());
+        synchronized (unsavedChunks) {
+            dirtyChunks.add(chunk);
+            unsavedChunks.computeIfAbsent(chunk.getWorldName(), k -> new HashMap<>()).put(getChunkKey(chunk.getChunkX(), chunk.getChunkZ()), chunk);
+        }
+    }
+
+    //queues every dirty chunk in a world (or in every world if worldName is null) to be saved on the database I/O thread
+    public int flush(String worldName) {
+        int queued = 0;
+        for (LoggedChunk chunk : dirtyChunks) {
+            if ((worldName == null || worldName.equals(chunk.getWorldName())) && !busyWorlds.contains(chunk.getWorldName()) && dirtyChunks.remove(chunk)) {
+                queued++;
+                queueSave(chunk);
+            }
+        }
+
+        if (debug >= 3 && queued > 0) {
+            console.info(ChatColor.DARK_AQUA + "Queued " + queued + " changed chunks to be saved in the custom block database");
+        }
+        return queued;
+    }
+
+    //saves a chunk that was just removed from the dirty set on the database I/O thread
+    private void queueSave(LoggedChunk chunk) {
+        ioExecutor.execute(() -> {
+            saveChunk(chunk);
+            synchronized (unsavedChunks) {
+                Map<Long, LoggedChunk> worldUnsaved = unsavedChunks.get(chunk.getWorldName());
+                if (!dirtyChunks.contains(chunk) && worldUnsaved != null) {
+                    worldUnsaved.remove(getChunkKey(chunk.getChunkX(), chunk.getChunkZ()), chunk);
+                }
+            }
+        });
+    }
+
+    //blocks until every save that has already been queued is finished
+    public void awaitWrites() {
+        try {
+            ioExecutor.submit(() -> {}).get();
+        } catch (InterruptedException | ExecutionException | RejectedExecutionException e) {
+            console.severe(ChatColor.RED + "An error occurred while waiting for the custom block database to finish saving");
+        }
+    }
+
+    //(re)starts the repeating task that flushes dirty chunks every "interval" ticks
+    public void startSaveTask(int interval) {
+        if (saveTask != 0) {
+            Bukkit.getScheduler().cancelTask(saveTask);
+        }
+        saveTask = Bukkit.getScheduler().scheduleSyncRepeatingTask(main, () -> {
+            flush(null);
+            enforceMemoryCap();
+        }, Math.max(interval, 1), Math.max(interval, 1));
+    }
+
+    //drops all unsaved changes for a world and waits for saves that already started, used before a world's database folder is replaced
+    public void discardWorld(String worldName) {
+        synchronized (unsavedChunks) {
+            dirtyChunks.removeIf(chunk -> chunk.getWorldName().equals(worldName));
+            unsavedChunks.remove(worldName);
+        }
+        awaitWrites();
+    }
+
+    //drops the index for a world and re-reads its loaded chunks, used when the world's database folder is changed directly
+    public void reloadWorld(String worldName) {
+        pendingLoads.remove(worldName);
+        loadedChunks.remove(worldName);
+        closeStore(worldName);
+        presence.remove(worldName);
+        new File(getWorldFolder(worldName), PRESENCE_FILE).delete();
+
+        World world = Bukkit.getWorld(worldName);
+        if (world != null) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                loadChunkAsync(chunk);
+            }
+        }
+    }
+
+    //returns false if a chunk is known to have no logged blocks, which is checked without any I/O once the world's presence set is loaded
+    public boolean mightHaveBlocks(String worldName, int chunkX, int chunkZ) {
+        return getPresence(worldName).contains(chunkX, chunkZ);
+    }
+
+    //gets the presence set for a world, reading it from the file saved on the last clean shutdown or rebuilding it from the world's store
+    //the file is deleted once it is read, so a crash before the next clean shutdown causes a rebuild instead of using outdated data
+    public ChunkPresence getPresence(String worldName) {
+        return presence.computeIfAbsent(worldName, k -> {
+            File file = new File(getWorldFolder(worldName), PRESENCE_FILE);
+            if (file.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                    ChunkPresence worldPresence = ChunkPresence.read(in);
+                    in.close();
+                    if (file.delete()) {
+                        return worldPresence;
+                    }
+                } catch (IOException e) {
+                    console.warning(ChatColor.YELLOW + "Could not read the custom block presence file for " + worldName + ", so it will be rebuilt: " + e.getMessage());
+                }
+            }
+
+            try {
+                ChunkPresence worldPresence = ChunkPresence.fromChunkKeys(getStore(worldName).getChunkKeys());
+                if (debug >= 2) {
+                    console.info(ChatColor.DARK_AQUA + "Rebuilt the custom block presence set for " + worldName + " with " + worldPresence.size() + " chunks");
+                }
+                return worldPresence;
+            } catch (IOException e) {
+                console.severe(ChatColor.RED + "Could not list the chunks in the custom block database for " + worldName + ", so every chunk will be read: " + e.getMessage());
+                return new AllChunksPresence();
+            }
+        });
+    }
+
+    //fallback used when a world's chunks could not be listed, which treats every chunk as possibly having blocks
+    private static class AllChunksPresence extends ChunkPresence {
+        @Override
+        public boolean contains(int chunkX, int chunkZ) {
+            return true;
+        }
+
+        @Override
+        public void write(DataOutputStream out) throws IOException {
+            throw new IOException("the presence set was not built");
+        }
+    }
+
+    //saves the presence set for every world that has one, so the next startup does not need to rebuild them
+    private void savePresence() {
+        presence.forEach((worldName, worldPresence) -> {
+            if (worldPresence instanceof AllChunksPresence) {
+                return;
+            }
+
+            File folder = getWorldFolder(worldName);
+            folder.mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(folder, PRESENCE_FILE))))) {
+                worldPresence.write(out);
+            } catch (IOException e) {
+                console.severe(ChatColor.RED + "Could not save the custom block presence file for " + worldName + ": " + e.getMessage());
+            }
+        });
+    }
+
+    //reads a chunk from the store for its world, returning an empty chunk if it could not be read
+    private LoggedChunk readChunkFile(String worldName, int chunkX, int chunkZ) {
+        if (busyWorlds.contains(worldName) && !migratingWorlds.contains(worldName)) {
+            return new LoggedChunk(worldName, chunkX, chunkZ);
+        }
+
+        storeLock.readLock().lock();
+        try {
+            return getStore(worldName).loadChunk(chunkX, chunkZ);
+        } catch (IOException e) {
+            console.severe(ChatColor.RED + "Could not read the custom block data for the chunk at " + worldName + ", " + chunkX + ", " + chunkZ + ": " + e.getMessage());
+            return new LoggedChunk(worldName, chunkX, chunkZ);
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    //writes the resident data for a chunk to the store for its world
+    public void saveChunk(LoggedChunk chunk) {
+        String chunkString = chunk.getWorldName() + ", " + chunk.getChunkX() + ", " + chunk.getChunkZ();
+        try {
+            getStore(chunk.getWorldName()).saveChunk(chunk);
+            if (debug >= 2) {
+                console.info(ChatColor.DARK_AQUA + "Saved the custom block data for the chunk at " + chunkString);
+            }
+        } catch (IOException e) {
+            console.severe(ChatColor.RED + "Could not save the custom block data for the chunk at " + chunkString + ": " + e.getMessage());
+        }
+    }
+
+    //gets the open store for a world, creating it with the world's configured format if needed
+    public CustomBlockStore getStore(String worldName) {
+        return stores.computeIfAbsent(worldName, k -> createStore(k, getFormat(k)));
+    }
+
+    //creates a new store of a specific format for a world, used for the world's own store and for converting between formats
+    public CustomBlockStore createStore(String worldName, String format) {
+        return createStore(worldName, getWorldFolder(worldName), format, console);
+    }
+
+    public static CustomBlockStore createStore(String worldName, File folder, String format, Logger console) {
+        switch (format.toLowerCase()) {
+            case "region":
+                return new RegionFileStore(worldName, folder);
+            case "sqlite":
+                return new SQLiteStore(worldName, folder);
+            default:
+                return new YamlChunkStore(worldName, folder, console);
+        }
+    }
+
+    public static boolean isValidFormat(String format) {
+        return FORMATS.contains(format.toLowerCase());
+    }
+
+    //gets the format used by a world, which is the format it was migrated to, its entry in "database-world-formats", or the default "database-format"
+    public String getFormat(String worldName) {
+        String format = readFormatFile(getWorldFolder(worldName));
+        return format != null && isValidFormat(format) ? format.toLowerCase() : getConfiguredFormat(worldName);
+    }
+
+    //gets the format a world would use if it had never been migrated
+    public String getConfiguredFormat(String worldName) {
+        String format = worldFormats.getOrDefault(worldName, defaultFormat);
+        return isValidFormat(format) ? format.toLowerCase() : "yaml";
+    }
+
+    private static String readFormatFile(File folder) {
+        File file = new File(folder, FORMAT_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            return lines.isEmpty() ? null : lines.get(0).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static void writeFormatFile(File folder, String format) throws IOException {
+        folder.mkdirs();
+        Files.write(new File(folder, FORMAT_FILE).toPath(), Collections.singletonList(format.toLowerCase()), StandardCharsets.UTF_8);
+    }
+
+    //converts a world's stored data to a different format on the database I/O thread, and marks the world as busy until it finishes
+    //changes made during the migration are not saved until it finishes, so they are written to the new format afterwards, and chunks are still read from the old format until then
+    //the old format's files are kept, and the world keeps using the old format if the copy could not be verified
+    public void migrateWorld(String worldName, String format, Consumer<String> progress) {
+        flush(worldName);
+        busyWorlds.add(worldName);
+        migratingWorlds.add(worldName);
+        ioExecutor.execute(() -> {
+            try {
+                //the format is checked again here, since another migration of the same world may have finished after this one was confirmed
+                String currentFormat = getFormat(worldName);
+                if (currentFormat.equals(format)) {
+                    progress.accept(ChatColor.RED + "The custom block database for " + worldName + " already uses the \"" + format + "\" format");
+                    return;
+                }
+                migrate(worldName, format, progress);
+            } finally {
+                migratingWorlds.remove(worldName);
+                busyWorlds.remove(worldName);
+            }
+        });
+    }
+
+    private void migrate(String worldName, String format, Consumer<String> progress) {
+        CustomBlockStore source = getStore(worldName);
+        CustomBlockStore target = createStore(worldName, format);
+        try {
+            target.deleteAll();
+            StoreMigration migration = new StoreMigration(source, target, Runtime.getRuntime().availableProcessors(), progress);
+            if (migration.run()) {
+                //the old store is only closed once no loader thread is reading from it
+                storeLock.writeLock().lock();
+                try {
+                    writeFormatFile(getWorldFolder(worldName), format);
+                    closeStore(worldName);
+                    stores.put(worldName, target);
+                } finally {
+                    storeLock.writeLock().unlock();
+                }
+                progress.accept(ChatColor.GREEN + "The custom block database for " + worldName + " now uses the \"" + format + "\" format. The old \"" + source.getFormat() + "\" files were kept and can be deleted manually");
+            } else {
+                target.deleteAll();
+                target.close();
+                progress.accept(ChatColor.RED + "The custom block database for " + worldName + " will keep using the \"" + source.getFormat() + "\" format");
+            }
+        } catch (IOException e) {
+            console.severe(ChatColor.RED + "Could not migrate the custom block database for " + worldName + ": " + e.getMessage());
+            progress.accept(ChatColor.RED + "Could not migrate the custom block database for " + worldName + " because an error occurred!");
+            try {
+                target.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    //returns true if the formats in a config are different from the formats this database was created with
+    public boolean formatsChanged(ConfigurationSection customBlockConfig) {
+        return !readDefaultFormat(customBlockConfig).equals(defaultFormat) || !readWorldFormats(customBlockConfig).equals(worldFormats);
+    }
+
+    private static String readDefaultFormat(ConfigurationSection customBlockConfig) {
+        return customBlockConfig.getString("Global.database-format", "yaml").toLowerCase();
+    }
+
+    private static Map<String, String> readWorldFormats(ConfigurationSection customBlockConfig) {
+        Map<String, String> formats = new HashMap<>();
+        if (customBlockConfig.isConfigurationSection("Global.database-world-formats")) {
+            ConfigurationSection section = customBlockConfig.getConfigurationSection("Global.database-world-formats");
+            for (String worldName : section.getKeys(false)) {
+                formats.put(worldName, section.getString(worldName, "yaml").toLowerCase());
+            }
+        }
+        return formats;
+    }
+
+    //closes and forgets the store for a world so its files can be changed directly, after waiting for any reads from it to finish
+    private void closeStore(String worldName) {
+        storeLock.writeLock().lock();
+        try {
+            CustomBlockStore store = stores.remove(worldName);
+            if (store != null) {
+                store.close();
+            }
+        } catch (IOException e) {
+            console.severe(ChatColor.RED + "Could not close the custom block database for the world " + worldName + ": " + e.getMessage());
+        } finally {
+            storeLock.writeLock().unlock();
+        }
+    }
+
+    //gets a temporary folder next to a world's database folder, which is on the same filesystem so it can be renamed into place
+    private File getTempFolder(String worldName, String suffix) {
+        return new File(getWorldFolder(worldName).getParentFile(), "." + worldName + "." + suffix + "-" + System.currentTimeMillis());
+    }
+
+    //deletes all stored data for a world on the database I/O thread, then clears its index on the main thread
+    //the world's folder is renamed out of the way first, so the world is empty immediately even if deleting the files takes a while
+    public void deleteWorldAsync(String worldName, Consumer<String> progress, Consumer<Boolean> done) {
+        busyWorlds.add(worldName);
+        ioExecutor.execute(() -> {
+            boolean success = true;
+            try {
+                closeStore(worldName);
+                File folder = getWorldFolder(worldName);
+                if (folder.exists()) {
+                    File trash = getTempFolder(worldName, "deleted");
+                    DirectoryTransfer.move(folder, trash);
+                    new DirectoryTransfer("Deleting " + worldName, progress).deleteDirectory(trash);
+                }
+            } catch (IOException e) {
+                console.severe(ChatColor.RED + "Could not delete the custom block database for " + worldName + ": " + e.getMessage());
+                success = false;
+            }
+            finishWorldTask(worldName, success, done);
+        });
+    }
+
+    //replaces the data for one world with a copy of another world's data on the database I/O thread, converting between formats if the worlds use different ones
+    //the copy is written into a temporary folder which is only renamed into place once it is complete
+    public void cloneWorldAsync(String worldName, String newWorldName, Consumer<String> progress, Consumer<Boolean> done) {
+        flush(worldName);
+        busyWorlds.add(newWorldName);
+        String sourceFormat = getFormat(worldName);
+        String targetFormat = getConfiguredFormat(newWorldName);
+
+        ioExecutor.execute(() -> {
+            boolean success = true;
+            File temp = getTempFolder(newWorldName, "cloning");
+            try {
+                if (sourceFormat.equals(targetFormat)) {
+                    new DirectoryTransfer("Cloning " + worldName + " to " + newWorldName, progress).copyDirectory(getWorldFolder(worldName), temp);
+                    new File(temp, PRESENCE_FILE).delete();
+                } else {
+                    CustomBlockStore target = createStore(newWorldName, temp, targetFormat, console);
+                    boolean verified;
+                    try {
+                        verified = new StoreMigration(getStore(worldName), target, Runtime.getRuntime().availableProcessors(), progress).run();
+                    } finally {
+                        target.close();
+                    }
+                    if (!verified) {
+                        throw new IOException("the converted data could not be verified");
+                    }
+                }
+
+                closeStore(newWorldName);
+                File folder = getWorldFolder(newWorldName);
+                File trash = getTempFolder(newWorldName, "replaced");
+                if (folder.exists()) {
+                    DirectoryTransfer.move(folder, trash);
+                }
+                DirectoryTransfer.move(temp, folder);
+                new DirectoryTransfer("Removing the old database for " + newWorldName, progress).deleteDirectory(trash);
+            } catch (IOException e) {
+                console.severe(ChatColor.RED + "Could not clone the custom block database from " + worldName + " to " + newWorldName + ": " + e.getMessage());
+                success = false;
+                try {
+                    new DirectoryTransfer("Cleaning up", progress).deleteDirectory(temp);
+                } catch (IOException ignored) {
+                }
+            }
+            finishWorldTask(newWorldName, success, done);
+        });
+    }
+
+    //drops the unsaved changes that were made to a world while its folder was being replaced, and re-indexes it on the main thread
+    private void finishWorldTask(String worldName, boolean success, Consumer<Boolean> done) {
+        Runnable finish = () -> {
+            synchronized (unsavedChunks) {
+                dirtyChunks.removeIf(chunk -> chunk.getWorldName().equals(worldName));
+                unsavedChunks.remove(worldName);
+            }
+            busyWorlds.remove(worldName);
+            reloadWorld(worldName);
+            done.accept(success);
+        };
+
+        if (main.isEnabled()) {
+            Bukkit.getScheduler().runTask(main, finish);
+        } else {
+            busyWorlds.remove(worldName);
+        }
+    }
+
+    public boolean isBusy(String worldName) {
+        return busyWorlds.contains(worldName);
+    }
+
+    //saves every dirty chunk, stops the database I/O thread, and closes all open stores
+    public void close() {
+        if (saveTask != 0) {
+            Bukkit.getScheduler().cancelTask(saveTask);
+            saveTask = 0;
+        }
+
+        loadExecutor.shutdown();
+        int queued = flush(null);
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                console.severe(ChatColor.RED + "The custom block database did not finish saving within 60 seconds, so some changes may have been lost");
+            }
+        } catch (InterruptedException e) {
+            console.severe(ChatColor.RED + "Interrupted while saving the custom block database, so some changes may have been lost");
+        }
+
+        for (String worldName : new ArrayList<>(stores.keySet())) {
+            closeStore(worldName);
+        }
+        savePresence();
+        if (debug >= 1 && queued > 0) {
+            console.info(ChatColor.DARK_AQUA + "Saved " + queued + " changed chunks in the custom block database");
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.util.*;
+
+//a custom block's definition, compiled once when the definition files are loaded so block events and packet listeners only read fields
+//nothing in here is changed after it is created, so it can be read from any thread and is replaced as a whole on reload
+public class CustomBlockDefinition {
+
+    //block section keys that do not affect disguises
+    private static final List<String> IGNORED_HASH_PATHS = Arrays.asList("options", "drops", "destroy-particles", "destroy-particles2", "destroy-sound");
+
+    private final String id;
+    private final int numericId;
+    private final String filePath;
+    private final YamlConfiguration file;
+
+    private final boolean unbreakable;
+    private final boolean instantBreak;
+    private final boolean blastResistant;
+    private final boolean disableFluidDestroy;
+    private final boolean pistonBreakable;
+    private final boolean cancelPistonPush;
+    private final boolean cancelPistonPull;
+    private final boolean dropsEnabled;
+    private final boolean cancelXp;
+    private final boolean stateDependentDisguise;
+    private final int disguiseHash;
+
+    private final String item;
+    private final boolean hasBlockSection;
+    private final ParsedBlockData actualBlock;
+    private final ParsedBlockData actualBlock2;
+    private final ParsedBlockData disguisedBlock;
+    private final ParsedBlockData disguisedBlock2;
+    private final List<String> actualSyncStates;
+    private final List<String> actualSyncStates2;
+    private final List<String> disguisedSyncStates;
+    private final List<String> disguisedSyncStates2;
+    private final MatchStateTree actualMatchStates;
+    private final MatchStateTree disguisedMatchStates;
+    //state name -> forced value, in the order they are defined, or null if there is no section
+    private final Map<String, String> forcedStates;
+    private final Map<String, String> forcedStates2;
+    private final String destroyParticles;
+    private final String destroyParticles2;
+    private final String destroySound;
+    private final boolean hasDropsSection;
+    private final List<CustomBlockDrop> drops;
+
+    public CustomBlockDefinition(String id, String filePath, YamlConfiguration file) {
+        this.id = id;
+        this.numericId = CustomBlockRegistry.intern(id);
+        this.filePath = filePath;
+        this.file = file;
+
+        this.unbreakable = file.getBoolean(id + ".block.options.unbreakable", false);
+        this.instantBreak = file.getBoolean(id + ".block.options.instant-break", false);
+        this.blastResistant = file.getBoolean(id + ".block.options.blast-resistant", false);
+        this.disableFluidDestroy = file.getBoolean(id + ".block.options.disable-fluid-destroy", false);
+        this.pistonBreakable = file.getBoolean(id + ".block.options.piston-breakable", false);
+        this.cancelPistonPush = file.getBoolean(id + ".block.options.cancel-piston-push", false);
+        this.cancelPistonPull = file.getBoolean(id + ".block.options.cancel-piston-pull", false);
+        this.dropsEnabled = file.getBoolean(id + ".block.drops.enabled", true);
+        this.cancelXp = file.getBoolean(id + ".block.drops.cancel-xp", false);
+
+        boolean stateDependent = file.isConfigurationSection(id + ".block.disguised-match-states");
+        for (String syncPath : new String[] {"disguised-sync-states", "disguised-sync-states2", "sync-states", "sync-states2"}) {
+            stateDependent |= file.contains(id + ".block." + syncPath);
+        }
+        this.stateDependentDisguise = stateDependent;
+        this.disguiseHash = hashDisguise(file.getConfigurationSection(id + ".block"));
+
+        this.item = file.getString(id + ".item");
+        ConfigurationSection blockSection = file.getConfigurationSection(id + ".block");
+        this.hasBlockSection = blockSection != null;
+        if (blockSection == null) {
+            blockSection = new YamlConfiguration();
+        }
+
+        this.actualBlock = ParsedBlockData.parse(blockSection.getString("actual-block"));
+        this.actualBlock2 = ParsedBlockData.parse(blockSection.getString("actual-block2"));
+        this.disguisedBlock = ParsedBlockData.parse(blockSection.getString("disguised-block"));
+        this.disguisedBlock2 = ParsedBlockData.parse(blockSection.getString("disguised-block2"));
+        this.actualSyncStates = resolveSyncStates(blockSection, false, false);
+        this.actualSyncStates2 = resolveSyncStates(blockSection, false, true);
+        this.disguisedSyncStates = resolveSyncStates(blockSection, true, false);
+        this.disguisedSyncStates2 = resolveSyncStates(blockSection, true, true);
+        this.actualMatchStates = MatchStateTree.compile(blockSection.getConfigurationSection("actual-match-states"), id, "actual-block");
+        this.disguisedMatchStates = MatchStateTree.compile(blockSection.getConfigurationSection("disguised-match-states"), id, "disguised-block");
+
+        this.forcedStates = readForcedStates(blockSection.getConfigurationSection("force-actual-states"));
+        Map<String, String> forced2 = readForcedStates(blockSection.getConfigurationSection("force-actual-states2"));
+        this.forcedStates2 = blockSection.contains("force-actual-states2") ? forced2 : forcedStates;
+
+        this.destroyParticles = blockSection.getString("destroy-particles");
+        this.destroyParticles2 = blockSection.getString("destroy-particles2");
+        this.destroySound = blockSection.getString("destroy-sound");
+
+        ConfigurationSection dropsSection = blockSection.getConfigurationSection("drops");
+        this.hasDropsSection = dropsSection != null;
+        List<CustomBlockDrop> drops = new ArrayList<>();
+        if (dropsSection != null) {
+            for (String drop : dropsSection.getKeys(false)) {
+                if (dropsSection.isConfigurationSection(drop)) {
+                    drops.add(new CustomBlockDrop(dropsSection.getConfigurationSection(drop)));
+                }
+            }
+        }
+        this.drops = Collections.unmodifiableList(drops);
+    }
+
+    //hashes every value in the block section that can change a logged "disguised-block", so logged blocks only have to be recalculated when one of them changes
+    //the hash only depends on the definition's contents, so it is the same between restarts, and it is never 0 (which means "unknown" in the database)
+    private static int hashDisguise(ConfigurationSection blockSection) {
+        if (blockSection == null) {
+            return 1;
+        }
+
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, Object> entry : new TreeMap<>(blockSection.getValues(true)).entrySet()) {
+            String key = entry.getKey();
+            if (entry.getValue() instanceof ConfigurationSection || IGNORED_HASH_PATHS.contains(key.split("\\.")[0])) {
+                continue;
+            }
+            contents.append(key).append('=').append(entry.getValue()).append('\n');
+        }
+
+        int hash = contents.toString().hashCode();
+        return hash == 0 ? 1 : hash;
+    }
+
+    //finds the sync-states list that applies to a section, checking the specific paths before the shared ones:
+    //"[disguised/actual]-sync-states2", "[disguised/actual]-sync-states", "sync-states2", "sync-states" for the second block, and the paths without "2" for the first block
+    //returns null if none of them exist
+    static List<String> resolveSyncStates(ConfigurationSection section, boolean disguise, boolean secondBlock) {
+        String specificPath = disguise ? "disguised-sync-states" : "actual-sync-states";
+        String[] paths = secondBlock ? new String[] {specificPath + "2", specificPath, "sync-states2", "sync-states"} : new String[] {specificPath, "sync-states"};
+        for (String path : paths) {
+            if (section.contains(path)) {
+                return Collections.unmodifiableList(new ArrayList<>(section.getStringList(path)));
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> readForcedStates(ConfigurationSection section) {
+        if (section == null) {
+            return null;
+        }
+
+        Map<String, String> states = new LinkedHashMap<>();
+        for (String state : section.getKeys(false)) {
+            states.put(state, section.getString(state));
+        }
+        return Collections.unmodifiableMap(states);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getNumericId() {
+        return numericId;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public YamlConfiguration getFile() {
+        return file;
+    }
+
+    public ConfigurationSection getSection() {
+        return file.getConfigurationSection(id);
+    }
+
+    public boolean isUnbreakable() {
+        return unbreakable;
+    }
+
+    public boolean isInstantBreak() {
+        return instantBreak;
+    }
+
+    public boolean isBlastResistant() {
+        return blastResistant;
+    }
+
+    public boolean isFluidDestroyDisabled() {
+        return disableFluidDestroy;
+    }
+
+    public boolean isPistonBreakable() {
+        return pistonBreakable;
+    }
+
+    public boolean cancelsPistonPush() {
+        return cancelPistonPush;
+    }
+
+    public boolean cancelsPistonPull() {
+        return cancelPistonPull;
+    }
+
+    public boolean areDropsEnabled() {
+        return dropsEnabled;
+    }
+
+    public boolean cancelsXp() {
+        return cancelXp;
+    }
+
+    //a hash of everything in the definition that a logged "disguised-block" is calculated from, which is logged with each block to find outdated disguises after a reload
+    public int getDisguiseHash() {
+        return disguiseHash;
+    }
+
+    //whether the disguised BlockData depends on the states of the real block (sync-states or match-states), so a logged "disguised-block" can become outdated
+    public boolean hasStateDependentDisguise() {
+        return stateDependentDisguise;
+    }
+
+    //the raw NBT string of this block's item, or null if there is none
+    public String getItem() {
+        return item;
+    }
+
+    public boolean hasBlockSection() {
+        return hasBlockSection;
+    }
+
+    //the parsed "disguised-block", "actual-block", or their "2" versions, or null if that path does not exist
+    public ParsedBlockData getBlockData(boolean disguised, boolean secondBlock) {
+        if (disguised) {
+            return secondBlock ? disguisedBlock2 : disguisedBlock;
+        }
+        return secondBlock ? actualBlock2 : actualBlock;
+    }
+
+    //the states that are copied from the real block to the disguised or actual block, or null if no sync-states apply
+    public List<String> getSyncStates(boolean disguised, boolean secondBlock) {
+        if (disguised) {
+            return secondBlock ? disguisedSyncStates2 : disguisedSyncStates;
+        }
+        return secondBlock ? actualSyncStates2 : actualSyncStates;
+    }
+
+    public MatchStateTree getMatchStates(boolean disguised) {
+        return disguised ? disguisedMatchStates : actualMatchStates;
+    }
+
+    //problems in the definition that were found while compiling it, which are logged when the definitions are loaded
+    public List<String> getErrors() {
+        List<String> errors = new ArrayList<>(disguisedMatchStates.getErrors());
+        errors.addAll(actualMatchStates.getErrors());
+        return errors;
+    }
+
+    //the states that are forced onto the real block, or null if there are none (the second block uses "force-actual-states2" only if it exists)
+    public Map<String, String> getForcedStates(boolean secondBlock) {
+        return secondBlock ? forcedStates2 : forcedStates;
+    }
+
+    //the path that getForcedStates() was read from, for messages
+    public String getForcedStatesPath(boolean secondBlock) {
+        return secondBlock && forcedStates2 != forcedStates ? "force-actual-states2" : "force-actual-states";
+    }
+
+    public String getDestroyParticles(boolean secondBlock) {
+        return secondBlock ? destroyParticles2 : destroyParticles;
+    }
+
+    public String getDestroySound() {
+        return destroySound;
+    }
+
+    public boolean hasDropsSection() {
+        return hasDropsSection;
+    }
+
+    public List<CustomBlockDrop> getDrops() {
+        return drops;
+    }
+}
@@ -0,0 +1,159 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.enchantments.Enchantment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+//one compiled section under "block.drops" of a custom block definition, with its conditions, chance, xp changes, and items
+//random counts and chances are still rolled every time the block is broken
+public class CustomBlockDrop {
+
+    private static final List<String> OPTION_KEYS = Arrays.asList("chance", "conditions", "set-xp", "add-xp", "multiply-xp");
+
+    private final String name;
+    //enchantment keys from "conditions" and the enchantments they refer to (null for keys that are not valid enchantments)
+    private final List<String> conditionKeys;
+    private final List<Enchantment> conditions;
+    private final Double chance;
+    private final Double setXp;
+    private final Double addXp;
+    private final Double multiplyXp;
+    //every key that is not an option, which is checked against the custom item ids and vanilla item types when the block drops since other definitions can change
+    private final List<Item> items;
+
+    public CustomBlockDrop(ConfigurationSection section) {
+        this.name = section.getName();
+
+        if (section.contains("conditions")) {
+            List<String> keys = section.getStringList("conditions");
+            List<Enchantment> enchantments = new ArrayList<>();
+            for (String key : keys) {
+                enchantments.add(Enchantment.getByKey(NamespacedKey.minecraft(key)));
+            }
+            this.conditionKeys = Collections.unmodifiableList(new ArrayList<>(keys));
+            this.conditions = Collections.unmodifiableList(enchantments);
+        } else {
+            this.conditionKeys = null;
+            this.conditions = null;
+        }
+
+        this.chance = section.contains("chance") ? section.getDouble("chance") : null;
+        this.setXp = section.contains("set-xp") ? section.getDouble("set-xp") : null;
+        this.addXp = section.contains("add-xp") ? section.getDouble("add-xp") : null;
+        this.multiplyXp = section.contains("multiply-xp") ? section.getDouble("multiply-xp") : null;
+
+        List<Item> items = new ArrayList<>();
+        for (String key : section.getKeys(false)) {
+            if (OPTION_KEYS.contains(key.toLowerCase())) {
+                continue;
+            }
+
+            Material material = Material.matchMaterial(key);
+            ConfigurationSection itemSection = section.getConfigurationSection(key);
+            if (itemSection != null) {
+                //configuration section format: material or custom item id as key, count and nbt as children
+                items.add(new Item(key, material, itemSection.getString("nbt"), itemSection.get("count"), itemSection.contains("count"), false));
+            } else {
+                //vanilla item without NBT:   [material]: [count]
+                items.add(new Item(key, material, null, section.get(key), true, true));
+            }
+        }
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    //the enchantment keys that the breaking player's tool must have, or null if there are no conditions
+    public List<String> getConditionKeys() {
+        return conditionKeys;
+    }
+
+    public List<Enchantment> getConditions() {
+        return conditions;
+    }
+
+    public Double getChance() {
+        return chance;
+    }
+
+    public Double getSetXp() {
+        return setXp;
+    }
+
+    public Double getAddXp() {
+        return addXp;
+    }
+
+    public Double getMultiplyXp() {
+        return multiplyXp;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    //one item in a drop section, which is either a custom item id, a vanilla material, or an invalid key
+    public static class Item {
+
+        private final String key;
+        private final Material material;
+        private final String nbt;
+        //the amount is only set if "count" exists (or for the short format), and is random between min and max for ranges like "1-3"
+        private final boolean setsAmount;
+        private final int minCount;
+        private final int maxCount;
+
+        Item(String key, Material material, String nbt, Object count, boolean setsAmount, boolean integerOnly) {
+            this.key = key;
+            this.material = material;
+            this.nbt = nbt;
+            this.setsAmount = setsAmount;
+
+            int min = 1;
+            int max = 1;
+            if (integerOnly ? count instanceof Integer : count instanceof Number) {
+                min = max = ((Number) count).intValue();
+            } else if (count instanceof String && ((String) count).contains("-") && ((String) count).length() >= 3) {
+                String[] range = ((String) count).split("-");
+                try {
+                    min = Integer.parseInt(range[0]);
+                    max = Integer.parseInt(range[1]);
+                } catch (NumberFormatException e) {
+                    min = max = 1;
+                }
+            }
+            this.minCount = min;
+            this.maxCount = max;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        //the vanilla material for the key (or null if it is not one), which is only used if the key is not a custom item id
+        public Material getMaterial() {
+            return material;
+        }
+
+        public String getNbt() {
+            return nbt;
+        }
+
+        public boolean setsAmount() {
+            return setsAmount;
+        }
+
+        //rolls the amount for one drop
+        public int rollCount() {
+            return (int) (Math.random() * (maxCount - minCount + 1) + minCount);
+        }
+    }
+}
@@ -3,9 +3,12 @@ package me.mackblue.worldofzombies.modules.customblocks;
 import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.ProtocolManager;
 import com.comphenix.protocol.events.*;
+import com.comphenix.protocol.utility.MinecraftReflection;
 import com.comphenix.protocol.wrappers.BlockPosition;
 import com.comphenix.protocol.wrappers.WrappedBlockData;
 import com.destroystokyo.paper.event.block.BlockDestroyEvent;
+import me.mackblue.worldofzombies.util.BlockStateCache;
+import me.mackblue.worldofzombies.util.ChunkDataRewrite;
 import me.mackblue.worldofzombies.util.MultiBlockChangeWrap;
 import me.mackblue.worldofzombies.WorldOfZombies;
 import org.apache.commons.io.FileUtils;
@@ -21,9 +24,17 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.*;
 import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 public class CustomBlockEvents implements Listener {
@@ -37,10 +48,21 @@ public class CustomBlockEvents implements Listener {
     private FileConfiguration customBlockConfig;
 
     private int debug;
+    private boolean injectChunkDisguises;
+    private int chunkLoadDelay;
 
     //private Map<Player, MultiBlockChangeWrap[][][]> subChunkList = new HashMap<>();
     private final Map<String, String> idToDefinitionFilePath;
     private final Map<String, YamlConfiguration> idToDefinitionFile;
+    private final CustomBlockRegistry registry;
+    private final DisguiseSendQueue sendQueue;
+    private final ChunkPrefetcher prefetcher;
+    private final DisguiseRecalculator recalculator;
+    private final SentDisguiseTracker sentDisguises;
+    //logged "disguised-block" strings -> their parsed packet data, shared by the packet listeners and cleared on reload
+    private final Map<String, WrappedBlockData> disguiseDataCache;
+    //disguise block state handles -> their global block state ids, used when disguises are injected into chunk packets
+    private final Map<Object, Integer> disguiseStateIds;
 
     //constructor to initialize fields and load custom block config file
     public CustomBlockEvents(WorldOfZombies main, ProtocolManager pm) {
@@ -50,14 +72,23 @@ public class CustomBlockEvents implements Listener {
 
         idToDefinitionFilePath = new HashMap<>();
         idToDefinitionFile = new HashMap<>();
+        registry = new CustomBlockRegistry();
+        disguiseDataCache = new ConcurrentHashMap<>();
+        disguiseStateIds = new ConcurrentHashMap<>();
 
         helper = new CustomBlockHelper(main, this);
+        sendQueue = new DisguiseSendQueue(main, helper);
+        prefetcher = new ChunkPrefetcher(main, helper);
+        recalculator = new DisguiseRecalculator(main, helper);
+        sentDisguises = new SentDisguiseTracker();
 
         reload();
         MultiBlockChangeWrap.init(this.pm, console, debug);
         chunkLoadListener();
+        chunkUnloadListener();
         blockChangeListener();
         multiBlockChangeListener();
+        clientBlockStateListener();
     }
 
     //when a player places a block, log the location and disguised-block, and set the server block to actual-data if it exists in the definition
@@ -88,16 +119,15 @@ public class CustomBlockEvents implements Listener {
     //when a player clicks (damages) a block, break the block if its "instant-break" option is true
     @EventHandler
     public void instaBreakEvent(BlockDamageEvent event) {
-        String id = (String) getCustomBlockHelper().getLoggedObjectFromLocation(event.getBlock().getLocation(), "id");
-        if (id != null) {
-            YamlConfiguration yaml = idToDefinitionFile.get(id);
-            if (yaml != null && yaml.getBoolean(id + ".block.options.instant-break", false)) {
+        LoggedBlock loggedBlock = helper.getLoggedBlock(event.getBlock().getLocation());
+        if (loggedBlock != null) {
+            CustomBlockDefinition definition = registry.getDefinition(loggedBlock);
+            if (definition != null && definition.isInstantBreak()) {
                 Player player = event.getPlayer();
                 //event.setInstaBreak(true);
                 //console.info(ChatColor.GOLD + "insta");
 
-                Object secondBlockObj = helper.getLoggedObjectFromLocation(event.getBlock().getLocation(), "secondBlock", false);
-                boolean secondBlock = secondBlockObj != null && (boolean) secondBlockObj;
+                boolean secondBlock = loggedBlock.isSecondBlock();
                 helper.destroyLoggedBlock(event, true, event.getBlock().getLocation(), player.getGameMode() == GameMode.SURVIVAL && !secondBlock, player, null, true);
             }
         }
@@ -106,10 +136,9 @@ public class CustomBlockEvents implements Listener {
     //cancels any xp that would normally drop from a custom block being broken (like an ore block)
     @EventHandler
     public void blockDropXpEvent(BlockExpEvent event) {
-        String id = (String) helper.getLoggedObjectFromLocation(event.getBlock().getLocation(), "id");
         if (event.getExpToDrop() != 0) {
-            YamlConfiguration yaml = idToDefinitionFile.get(id);
-            if (yaml != null && yaml.getBoolean(id + ".block.drops.enabled", true) && yaml.getBoolean(id + ".block.drops.cancel-xp")) {
+            CustomBlockDefinition definition = registry.getDefinition(helper.getLoggedBlock(event.getBlock().getLocation()));
+            if (definition != null && definition.areDropsEnabled() && definition.cancelsXp()) {
                 event.setExpToDrop(0);
             }
         }
@@ -124,10 +153,11 @@ public class CustomBlockEvents implements Listener {
         Location loc = block.getLocation();
         //console.info(ChatColor.GOLD + "block break");
 
-        String id = (String) helper.getLoggedObjectFromLocation(loc, "id");
-        YamlConfiguration yaml = idToDefinitionFile.get(id);
-        if (yaml != null) {
-            if (yaml.getBoolean(id + ".block.options.unbreakable", false)) {
+        LoggedBlock loggedBlock = helper.getLoggedBlock(loc);
+        String id = loggedBlock == null ? null : loggedBlock.getId();
+        CustomBlockDefinition definition = registry.getDefinition(loggedBlock);
+        if (definition != null) {
+            if (definition.isUnbreakable()) {
                 if (player.getGameMode() == GameMode.SURVIVAL) {
                     event.setCancelled(true);
                     if (debug >= 3) {
@@ -180,13 +210,14 @@ public class CustomBlockEvents implements Listener {
 
         for (Block block : blocksCopy) {
             Location loc = block.getLocation();
-            String id = (String) helper.getLoggedObjectFromLocation(loc, "id");
+            LoggedBlock loggedBlock = helper.getLoggedBlock(loc);
 
-            if (id != null) {
+            if (loggedBlock != null) {
+                String id = loggedBlock.getId();
                 blocks.remove(block);
-                YamlConfiguration yaml = idToDefinitionFile.get(id);
-                if (yaml != null && !yaml.getBoolean(id + ".block.options.blast-resistant", false)) {
-                    if (!yaml.getBoolean(id + ".block.options.unbreakable", false)) {
+                CustomBlockDefinition definition = registry.getDefinition(loggedBlock);
+                if (definition != null && !definition.isBlastResistant()) {
+                    if (!definition.isUnbreakable()) {
                         //removing block from explosion and setting to air works, but is there a better way to remove original exploded block drops?
 
                         if (yield > 0) {
@@ -223,12 +254,13 @@ public class CustomBlockEvents implements Listener {
     @EventHandler
     public void liquidFlowEvent(BlockFromToEvent event) {
         Block block = event.getToBlock();
-        String id = (String) helper.getLoggedObjectFromLocation(block.getLocation(), "id");
-        if (id != null) {
-            YamlConfiguration yaml = idToDefinitionFile.get(id);
-            if (yaml != null) {
-                if (!yaml.getBoolean(id + ".block.options.disable-fluid-destroy", false)) {
-                    if (!yaml.getBoolean(id + ".block.options.unbreakable", false)) {
+        LoggedBlock loggedBlock = helper.getLoggedBlock(block.getLocation());
+        if (loggedBlock != null) {
+            String id = loggedBlock.getId();
+            CustomBlockDefinition definition = registry.getDefinition(loggedBlock);
+            if (definition != null) {
+                if (!definition.isFluidDestroyDisabled()) {
+                    if (!definition.isUnbreakable()) {
                         helper.destroyLoggedBlock(event, false, block.getLocation(), true, null, null, false);
                     } else {
                         event.setCancelled(true);
@@ -243,31 +275,101 @@ public class CustomBlockEvents implements Listener {
         }
     }
 
-    //listens for MAP_CHUNK (ChunkData) packets and calls the block loader for that chunk after a delay specified in the customBlockConfig
+    //starts reading the custom block database for a chunk into the resident index when the chunk loads
+    @EventHandler
+    public void chunkLoadEvent(ChunkLoadEvent event) {
+        helper.getDatabase().loadChunkAsync(event.getChunk());
+    }
+
+    //removes a chunk's custom block data and cached disguises from memory and queues its changes to be saved when the chunk unloads
+    @EventHandler
+    public void chunkUnloadEvent(ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        helper.getDatabase().unloadChunk(chunk);
+        helper.getDisguiseCache().invalidate(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+    }
+
+    //prefetches the custom blocks in the chunks a player is moving towards whenever they cross into another chunk
+    @EventHandler(ignoreCancelled = true)
+    public void playerMoveEvent(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        int fromX = from.getBlockX() >> 4;
+        int fromZ = from.getBlockZ() >> 4;
+        int toX = to.getBlockX() >> 4;
+        int toZ = to.getBlockZ() >> 4;
+        if ((fromX != toX || fromZ != toZ) && from.getWorld() == to.getWorld()) {
+            prefetcher.playerMoved(to.getWorld(), fromX, fromZ, toX, toZ);
+        }
+    }
+
+    //forgets the disguises a player's client has at a clicked block and the block next to it, since the client predicts block placements and interactions on its own
+    @EventHandler
+    public void playerInteractEvent(PlayerInteractEvent event) {
+        Block block = event.getClickedBlock();
+        if (event.getAction() == Action.RIGHT_CLICK_BLOCK && block != null) {
+            Block relative = block.getRelative(event.getBlockFace());
+            sentDisguises.forget(event.getPlayer(), block.getX(), block.getY(), block.getZ());
+            sentDisguises.forget(event.getPlayer(), relative.getX(), relative.getY(), relative.getZ());
+        }
+    }
+
+    //drops any chunks that were still queued to be sent to a player who left, and what their client was sent
+    @EventHandler
+    public void playerQuitEvent(PlayerQuitEvent event) {
+        sendQueue.remove(event.getPlayer());
+        sentDisguises.forgetPlayer(event.getPlayer());
+    }
+
+    //writes any changed custom block data for a world when the world itself is saved
+    @EventHandler
+    public void worldSaveEvent(WorldSaveEvent event) {
+        helper.getDatabase().flush(event.getWorld().getName());
+    }
+
+    //listens for MAP_CHUNK (ChunkData) packets and queues that chunk's custom blocks to be sent after a delay specified in the customBlockConfig
+    //this uses HIGHEST instead of MONITOR because the packet can be rewritten when disguises are injected
     public void chunkLoadListener() {
         pm.addPacketListener(
-                new PacketAdapter(main, ListenerPriority.MONITOR, PacketType.Play.Server.MAP_CHUNK) {
+                new PacketAdapter(main, ListenerPriority.HIGHEST, PacketType.Play.Server.MAP_CHUNK) {
 
                     @Override
                     public void onPacketSending(PacketEvent event) {
+                        if (event.isCancelled()) {
+                            return;
+                        }
+
                         Player player = event.getPlayer();
                         int chunkX = event.getPacket().getIntegers().read(0);
                         int chunkZ = event.getPacket().getIntegers().read(1);
-                        Chunk chunk = player.getWorld().getChunkAt(chunkX, chunkZ);
-
-                        int delay = customBlockConfig.getInt("Global.chunk-load-delay", 5);
-                        if (delay < 0) {
-                            delay = 0;
+                        //the client replaces every block in the chunk
+                        sentDisguises.forgetChunk(player, chunkX, chunkZ);
+                        if (!helper.getDatabase().mightHaveBlocks(player.getWorld().getName(), chunkX, chunkZ)) {
+                            return;
+                        }
+                        //far chunks are left to the send queue when tiered sending is enabled, so they are disguised gradually instead of as they are sent
+                        if (injectChunkDisguises && sendQueue.isNear(player, chunkX, chunkZ) && injectDisguises(event, player.getWorld(), chunkX, chunkZ)) {
+                            return;
                         }
 
-                        if (chunk.isLoaded()) {
-                            Bukkit.getServer().getScheduler().scheduleSyncDelayedTask(main, () -> {
-                                int blocks = helper.loadLoggedBlocksInChunk(player, chunk);
+                        sendQueue.add(player, chunkX, chunkZ, chunkLoadDelay);
+                    }
+                }
+        );
+    }
 
-                                if (debug >= 1 && blocks != 0) {
-                                    console.info(ChatColor.DARK_GREEN + "Loaded " + blocks + " blocks in the chunk at " + chunkX + ", " + chunkZ + " in a custom MultiBlockChange packet by " + player.getName());
-                                }
-                            }, delay);
+    //listens for UNLOAD_CHUNK packets and drops the chunk from the player's send queue if its disguises were not sent yet, and forgets what the client was sent in it
+    public void chunkUnloadListener() {
+        pm.addPacketListener(
+                new PacketAdapter(main, ListenerPriority.MONITOR, PacketType.Play.Server.UNLOAD_CHUNK) {
+
+                    @Override
+                    public void onPacketSending(PacketEvent event) {
+                        if (!event.isCancelled()) {
+                            int chunkX = event.getPacket().getIntegers().read(0);
+                            int chunkZ = event.getPacket().getIntegers().read(1);
+                            sendQueue.remove(event.getPlayer(), chunkX, chunkZ);
+                            sentDisguises.forgetChunk(event.getPlayer(), chunkX, chunkZ);
                         }
                     }
                 }
@@ -275,7 +377,69 @@ public class CustomBlockEvents implements Listener {
     }
 
 
+    //rewrites the section data of an outgoing MAP_CHUNK packet so that its logged blocks arrive already disguised
+    //returns false if the chunk still has to be loaded with MultiBlockChange packets, which happens if it is not indexed yet, its disguises are outdated, or the data could not be rewritten
+    private boolean injectDisguises(PacketEvent event, World world, int chunkX, int chunkZ) {
+        LoggedChunkSnapshot snapshot = helper.getDatabase().getSnapshot(world.getName(), chunkX, chunkZ);
+        if (snapshot == null || !helper.hasCurrentDisguises(world.getName(), snapshot)) {
+            return false;
+        }
+
+        PacketContainer packet = event.getPacket();
+        int sectionMask = packet.getIntegers().read(2);
+        int rewriteMask = 0;
+        for (int subChunkY = 0; subChunkY < 16; subChunkY++) {
+            if (snapshot.getSection(subChunkY) != null) {
+                rewriteMask |= 1 << subChunkY;
+            }
+        }
+        //sections that are not in the packet only contain air, so any blocks logged there are not disguised
+        rewriteMask &= sectionMask;
+        if (rewriteMask == 0) {
+            return true;
+        }
+
+        try {
+            byte[] data = ChunkDataRewrite.rewrite(packet.getByteArrays().read(0), sectionMask, rewriteMask,
+                    (subChunkY, states) -> disguiseStates(event.getPlayer(), world, snapshot.getSection(subChunkY), chunkX, subChunkY, chunkZ, states) != 0);
+            if (data != null) {
+                //the same packet object can be sent to every player watching the chunk, so the changes are made to a copy
+                packet = packet.shallowClone();
+                packet.getByteArrays().write(0, data);
+                event.setPacket(packet);
+            }
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            //the disguises that were recorded before the error are never sent
+            sentDisguises.forgetChunk(event.getPlayer(), chunkX, chunkZ);
+            if (debug >= 1) {
+                console.severe(ChatColor.RED + "Could not inject the custom blocks into the chunk packet at " + world.getName() + ", " + chunkX + ", " + chunkZ + ", so they will be sent separately: " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    //replaces the global block state ids of the logged blocks in one section of a chunk packet with their disguises (recording them as sent to the player), and returns how many were replaced
+    private int disguiseStates(Player player, World world, PalettedSection section, int chunkX, int subChunkY, int chunkZ, int[] states) {
+        int blocks = 0;
+        for (int index = section.nextIndex(0); index != -1; index = section.nextIndex(index + 1)) {
+            LoggedBlock loggedBlock = section.get(index);
+            int x = chunkX << 4 | (index & 0xF);
+            int y = subChunkY << 4 | (index >> 8 & 0xF);
+            int z = chunkZ << 4 | (index >> 4 & 0xF);
+
+            WrappedBlockData disguisedData = getPacketDisguise(world, x, y, z, loggedBlock, states[index]);
+            if (disguisedData != null) {
+                states[index] = disguiseStateIds.computeIfAbsent(disguisedData.getHandle(), BlockStateCache::getStateId);
+                sentDisguises.update(player, x, y, z, states[index]);
+                blocks++;
+            }
+        }
+        return blocks;
+    }
+
     //listens for BlockChange packets and if its position is logged, edits the packet to contain the logged disguised BlockData
+    //this only reads the chunk's immutable snapshot, and any disguise that has to be recalculated from the real block is done on the main thread
     public void blockChangeListener() {
         pm.addPacketListener(
                 new PacketAdapter(main, PacketType.Play.Server.BLOCK_CHANGE) {
@@ -284,46 +448,32 @@ public class CustomBlockEvents implements Listener {
                     public void onPacketSending(PacketEvent event) {
                         Player player = event.getPlayer();
                         PacketContainer packet = event.getPacket();
-                        WrappedBlockData wrappedBlockData = packet.getBlockData().read(0);
                         BlockPosition position = packet.getBlockPositionModifier().read(0);
-
-                        World world = player.getWorld();
                         int x = position.getX();
                         int y = position.getY();
                         int z = position.getZ();
-                        Location loc = new Location(world, x, y, z);
-                        Block block = world.getBlockAt(loc);
-                        String locString = world.getName() + ", " + x + ", " + y + ", " + z;
-
-                        //console.info(ChatColor.GOLD + "BC:  " + position + "   " + wrappedBlockData.getType() + "     " + block.getBlockData().getMaterial());
-
-                        String id = (String) helper.getLoggedObjectFromLocation(loc, "id");
-                        Object secondBlockObj = helper.getLoggedObjectFromLocation(loc, "secondBlock", false);
-                        boolean secondBlock = secondBlockObj != null && (boolean) secondBlockObj;
-                        String disguisedPathEnd = secondBlock ? "disguised-block2" : "disguised-block";
-                        if (id != null) {
-                            if (wrappedBlockData.equals(WrappedBlockData.createData(block.getBlockData()))) {
-                                BlockData disguisedData = helper.unLogBlockOrCreateDisguisedBlockData(loc, id, secondBlock);
-                                if (disguisedData != null) {
-                                    if (disguisedData.getMaterial() == Material.AIR) {
-                                        if (debug >= 3){
-                                            console.warning(ChatColor.YELLOW + "Did not edit the BlockData in an outgoing BlockChange packet for the custom block \"" + id + "\" at " + locString + " because its source \"" + disguisedPathEnd + "\" is empty");
-                                        }
-                                    } else {
-                                        packet.getBlockData().write(0, WrappedBlockData.createData(disguisedData));
-
-                                        String blockDataString = (String) helper.getLoggedObjectFromLocation(loc, "disguised-block");
-                                        if (!disguisedData.getAsString().equals(blockDataString)) {
-                                            helper.setLoggedInfoAtLocation(loc, "disguised-block", disguisedData.getAsString());
-                                        }
-
-                                        if (debug >= 4) {
-                                            console.info(ChatColor.AQUA + "Edited the BlockData in an outgoing BlockChange packet for the custom block \"" + id + "\" at " + locString + " by " + player.getName());
-                                        }
-                                    }
-                                }
-                            } else if (debug >= 4) {
-                                console.warning(ChatColor.YELLOW + "(THIS CAN PROBABLY BE IGNORED IF THIS IS DURING A CHUNK BEING LOADED) Did not load the \"" + disguisedPathEnd + "\" for the \"" + id + "\" at " + locString + " because the BlockData in a BlockChange packet for that location does not match the BlockData of the real block");
+                        World world = player.getWorld();
+
+                        //chunks that have not been indexed yet are disguised by the chunk loader once they are
+                        LoggedChunkSnapshot snapshot = helper.getDatabase().getSnapshot(world.getName(), x >> 4, z >> 4);
+                        LoggedBlock loggedBlock = snapshot == null ? null : snapshot.get(x, y, z);
+                        if (loggedBlock == null) {
+                            sentDisguises.forget(player, x, y, z);
+                            return;
+                        }
+
+                        //the block is read as its raw block state, so it does not have to be wrapped just to read its id
+                        Object packetState = packet.getModifier().withType(MinecraftReflection.getIBlockDataClass()).read(0);
+                        WrappedBlockData disguisedData = getPacketDisguise(world, x, y, z, loggedBlock, BlockStateCache.getStateId(packetState));
+                        if (disguisedData == null) {
+                            sentDisguises.forget(player, x, y, z);
+                        } else if (sentDisguises.update(player, x, y, z, BlockStateCache.getStateId(disguisedData))) {
+                            //the client already shows this disguise
+                            event.setCancelled(true);
+                        } else {
+                            packet.getBlockData().write(0, disguisedData);
+                            if (debug >= 4) {
+                                console.info(ChatColor.AQUA + "Edited the BlockData in an outgoing BlockChange packet for the custom block \"" + loggedBlock.getId() + "\" at " + world.getName() + ", " + x + ", " + y + ", " + z + " by " + player.getName());
                             }
                         }
                     }
@@ -331,7 +481,30 @@ public class CustomBlockEvents implements Listener {
         );
     }
 
+    //parses a logged "disguised-block" into packet data, or returns null if it is missing or invalid
+    public WrappedBlockData getDisguiseData(String disguisedBlock) {
+        if (disguisedBlock == null) {
+            return null;
+        }
+
+        WrappedBlockData data = disguiseDataCache.get(disguisedBlock);
+        if (data == null) {
+            try {
+                BlockData blockData = Bukkit.createBlockData(disguisedBlock);
+                if (blockData.getMaterial().isEmpty()) {
+                    return null;
+                }
+                data = BlockStateCache.wrap(blockData);
+                disguiseDataCache.put(disguisedBlock, data);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return data;
+    }
+
     //listens for MultiBlockChange packets edits the packet to contain the logged disguised BlockData for any included logged blocks
+    //the subChunk's section and occupancy mask are looked up once per packet, and packets for subChunks without logged blocks are not read at all
     public void multiBlockChangeListener() {
         pm.addPacketListener(
                 new PacketAdapter(main, PacketType.Play.Server.MULTI_BLOCK_CHANGE) {
@@ -341,65 +514,158 @@ public class CustomBlockEvents implements Listener {
                         Player player = event.getPlayer();
                         World world = player.getWorld();
                         PacketContainer packet = event.getPacket();
-                        short[] shortsArr = packet.getShortArrays().read(0);
-                        WrappedBlockData[] blockDataArr = packet.getBlockDataArrays().read(0);
                         BlockPosition subChunkPos = packet.getSectionPositions().read(0);
-                        int offsetX = (subChunkPos.getX() << 4);
-                        int offsetY = (subChunkPos.getY() << 4);
-                        int offsetZ = (subChunkPos.getZ() << 4);
-                        int blocks = 0;
-
-                        for (int i = 0; i < shortsArr.length; i++) {
-                            short location = shortsArr[i];
-                            int absoluteX = offsetX + (location >> 8 & 0xF);
-                            int absoluteY = offsetY + (location & 0xF);
-                            int absoluteZ = offsetZ + (location >> 4 & 0xF);
-                            Location loc = new Location(world, absoluteX, absoluteY, absoluteZ);
-                            Block block = world.getBlockAt(loc);
-                            String locString = world.getName() + ", " + absoluteX + ", " + absoluteY + ", " + absoluteZ;
-                            //console.info(ChatColor.GOLD + "MBC:  " + loc + "   packet:" + blockDataArr[i].getType() + "     real:" + block.getBlockData().getMaterial());
-
-                            String id = (String) helper.getLoggedObjectFromLocation(loc, "id");
-                            Object secondBlockObj = helper.getLoggedObjectFromLocation(loc, "secondBlock", false);
-                            boolean secondBlock = secondBlockObj != null && (boolean) secondBlockObj;
-                            String disguisedPathEnd = secondBlock ? "disguised-block2" : "disguised-block";
-                            if (id != null) {
-                                if (blockDataArr[i].equals(WrappedBlockData.createData(block.getBlockData()))) {
-                                    BlockData disguisedData = helper.unLogBlockOrCreateDisguisedBlockData(loc, id, secondBlock);
-                                    if (disguisedData != null) {
-                                        if (disguisedData.getMaterial() == Material.AIR) {
-                                            if (debug >= 3) {
-                                                console.warning(ChatColor.YELLOW + "Did not edit the BlockData for the custom block \"" + id + "\" at " + locString + " in a MultiBlockChange packet because its source \"" + disguisedPathEnd + "\" is empty");
-                                            }
-                                        } else {
-                                            blockDataArr[i] = WrappedBlockData.createData(disguisedData);
-                                            blocks++;
-
-                                            String blockDataString = (String) helper.getLoggedObjectFromLocation(loc, "disguised-block");
-                                            if (!disguisedData.getAsString().equals(blockDataString)) {
-                                                helper.setLoggedInfoAtLocation(loc, "disguised-block", disguisedData.getAsString());
-                                            }
-
-                                            if (debug >= 4) {
-                                                console.info(ChatColor.AQUA + "Edited the BlockData for the custom block \"" + id + "\" at " + locString + " in a MultiBlockChange packet by " + player.getName());
-                                            }
-                                        }
-                                    }
-                                } else if (debug >= 4) {
-                                    console.warning(ChatColor.YELLOW + "(THIS CAN PROBABLY BE IGNORED IF THIS IS DURING A CHUNK BEING LOADED) Did not load the \"" + disguisedPathEnd + "\" for the \"" + id + "\" at " + locString + " because the BlockData in a MultiBlockChange packet for that location does not match the BlockData of the real block");
-                                }
+
+                        LoggedChunkSnapshot snapshot = helper.getDatabase().getSnapshot(world.getName(), subChunkPos.getX(), subChunkPos.getZ());
+                        long[] occupancy = snapshot == null ? null : snapshot.getOccupancy(subChunkPos.getY());
+                        short[] shortsArr = packet.getShortArrays().read(0);
+                        if (occupancy == null) {
+                            //nothing in the packet is disguised, but the client may still have been sent disguises at these positions (like before their blocks were un-logged)
+                            for (short location : shortsArr) {
+                                sentDisguises.forget(player, subChunkPos.getX() << 4 | (location >> 8 & 0xF), subChunkPos.getY() << 4 | (location & 0xF), subChunkPos.getZ() << 4 | (location >> 4 & 0xF));
                             }
+                            return;
                         }
 
-                        packet.getBlockDataArrays().writeSafely(0, blockDataArr);
-                        if (debug >= 1 && blocks != 0) {
-                            console.info(ChatColor.DARK_GREEN + "Edited the BlockData of " + blocks + " blocks in a MultiBlockChange packet in the chunk at " + subChunkPos.getX() + ", " + subChunkPos.getZ() + " by " + player.getName());
+                        //the raw block states are copied instead of converted to WrappedBlockData, since the server can send the same packet to several players
+                        Object[] original = (Object[]) packet.getModifier().withType(BlockStateCache.getHandleArrayClass()).read(0);
+                        Object[] states = original.clone();
+                        int blocks = disguiseSection(world, snapshot.getSection(subChunkPos.getY()), occupancy, subChunkPos.getX(), subChunkPos.getY(), subChunkPos.getZ(), shortsArr, states);
+
+                        //disguises the client already shows are dropped from the packet, and the client's state is forgotten for every block that is not disguised
+                        short[] keptShorts = new short[shortsArr.length];
+                        int kept = 0;
+                        for (int i = 0; i < states.length; i++) {
+                            int x = subChunkPos.getX() << 4 | (shortsArr[i] >> 8 & 0xF);
+                            int y = subChunkPos.getY() << 4 | (shortsArr[i] & 0xF);
+                            int z = subChunkPos.getZ() << 4 | (shortsArr[i] >> 4 & 0xF);
+                            if (states[i] == original[i]) {
+                                sentDisguises.forget(player, x, y, z);
+                            } else if (sentDisguises.update(player, x, y, z, BlockStateCache.getStateId(states[i]))) {
+                                continue;
+                            }
+                            keptShorts[kept] = shortsArr[i];
+                            states[kept] = states[i];
+                            kept++;
+                        }
+
+                        if (kept == 0) {
+                            event.setCancelled(true);
+                        } else if (kept != states.length) {
+                            //the server can send the same packet to several players, but which blocks are dropped depends on the player
+                            packet = packet.shallowClone();
+                            packet.getShortArrays().write(0, Arrays.copyOf(keptShorts, kept));
+                            packet.getModifier().withType(BlockStateCache.getHandleArrayClass()).write(0, Arrays.copyOf(states, kept));
+                            event.setPacket(packet);
+                        } else if (blocks != 0) {
+                            //the disguises are written to a copy, so players who are sent the same packet later still read the real blocks from it
+                            packet = packet.shallowClone();
+                            packet.getModifier().withType(BlockStateCache.getHandleArrayClass()).write(0, states);
+                            event.setPacket(packet);
+                            if (debug >= 1) {
+                                console.info(ChatColor.DARK_GREEN + "Edited the BlockData of " + blocks + " blocks in a MultiBlockChange packet in the chunk at " + subChunkPos.getX() + ", " + subChunkPos.getZ() + " by " + player.getName());
+                            }
                         }
                     }
                 }
         );
     }
 
+    //listens for packets after which a player's client may show different blocks than it was sent, and forgets what the client was sent there
+    //this covers blocks the client breaks on its own, explosions and pistons (which the client plays out itself), and respawning or changing worlds (which replaces the client's whole world)
+    public void clientBlockStateListener() {
+        pm.addPacketListener(
+                new PacketAdapter(main, ListenerPriority.MONITOR, PacketType.Play.Server.EXPLOSION, PacketType.Play.Server.BLOCK_ACTION, PacketType.Play.Server.RESPAWN) {
+
+                    @Override
+                    public void onPacketSending(PacketEvent event) {
+                        if (event.isCancelled()) {
+                            return;
+                        }
+
+                        Player player = event.getPlayer();
+                        PacketContainer packet = event.getPacket();
+                        if (event.getPacketType() == PacketType.Play.Server.RESPAWN) {
+                            sentDisguises.forgetPlayer(player);
+                        } else if (event.getPacketType() == PacketType.Play.Server.EXPLOSION) {
+                            sentDisguises.forgetChunks(player, (int) Math.floor(packet.getDoubles().read(0)) >> 4, (int) Math.floor(packet.getDoubles().read(2)) >> 4, 1);
+                        } else {
+                            BlockPosition position = packet.getBlockPositionModifier().read(0);
+                            sentDisguises.forgetChunks(player, position.getX() >> 4, position.getZ() >> 4, 1);
+                        }
+                    }
+                }
+        );
+
+        pm.addPacketListener(
+                new PacketAdapter(main, ListenerPriority.MONITOR, PacketType.Play.Client.BLOCK_DIG) {
+
+                    @Override
+                    public void onPacketReceiving(PacketEvent event) {
+                        BlockPosition position = event.getPacket().getBlockPositionModifier().read(0);
+                        sentDisguises.forget(event.getPlayer(), position.getX(), position.getY(), position.getZ());
+                    }
+                }
+        );
+    }
+
+    //replaces the BlockData of every logged block in the contents of a MultiBlockChange packet for one subChunk, and returns how many were replaced
+    //"section" and "occupancy" come from a LoggedChunkSnapshot, so positions without logged blocks are skipped with a single bit check
+    //"states" are the packet's raw block states (see BlockStateCache), which are replaced in place
+    public int disguiseSection(World world, PalettedSection section, long[] occupancy, int subChunkX, int subChunkY, int subChunkZ, short[] locations, Object[] states) {
+        int blocks = 0;
+        for (int i = 0; i < locations.length; i++) {
+            //packet positions are packed as x, z, y, while subChunk indexes are y, z, x
+            short location = locations[i];
+            int localX = location >> 8 & 0xF;
+            int localY = location & 0xF;
+            int localZ = location >> 4 & 0xF;
+            int index = localY << 8 | localZ << 4 | localX;
+            if (!LoggedChunkSnapshot.isOccupied(occupancy, index)) {
+                continue;
+            }
+
+            int x = subChunkX << 4 | localX;
+            int y = subChunkY << 4 | localY;
+            int z = subChunkZ << 4 | localZ;
+            WrappedBlockData disguisedData = getPacketDisguise(world, x, y, z, section.get(index), BlockStateCache.getStateId(states[i]));
+            if (disguisedData != null) {
+                states[i] = disguisedData.getHandle();
+                blocks++;
+            }
+        }
+        return blocks;
+    }
+
+    //returns the packet data that should be sent instead of the real block for a logged block, or null if the packet should not be changed
+    //disguises that depend on the real block are looked up in the DisguiseTransformCache by the packet's block state id, and only calculated on the main thread when
+    //they were not calculated for that state yet, in which case the logged disguise (if it exists) is sent until the recalculated one is
+    private WrappedBlockData getPacketDisguise(World world, int x, int y, int z, LoggedBlock loggedBlock, int realStateId) {
+        if (BlockStateCache.isAir(realStateId)) {
+            //the block was probably broken without being un-logged, which is checked on the main thread
+            helper.recalculateDisguiseLater(world, x, y, z);
+            return null;
+        }
+
+        WrappedBlockData loggedData = getDisguiseData(loggedBlock.getDisguisedBlock());
+        CustomBlockDefinition definition = registry.getDefinition(loggedBlock);
+        if (definition == null || (loggedData != null && !definition.hasStateDependentDisguise() && helper.hasCurrentDisguise(loggedBlock))) {
+            return loggedData;
+        }
+
+        DisguiseTransformCache.Result cached = helper.getTransformCache().get(loggedBlock.getNumericId(), true, loggedBlock.isSecondBlock(), realStateId);
+        if (cached == null) {
+            helper.recalculateDisguiseLater(world, x, y, z);
+            return loggedData;
+        }
+
+        //the logged disguise is still updated on the main thread, but the packet already gets the current one
+        if (cached.getAsString() != null && (!cached.getAsString().equals(loggedBlock.getDisguisedBlock()) || !helper.hasCurrentDisguise(loggedBlock))) {
+            helper.recalculateDisguiseLater(world, x, y, z);
+        }
+        return cached.getWrapped();
+    }
+
     //reloads the main and custom block configs, the custom block definition files, and the debug field
     public void reload() {
         main.createConfigs();
@@ -417,6 +683,7 @@ public class CustomBlockEvents implements Listener {
 
             idToDefinitionFilePath.clear();
             idToDefinitionFile.clear();
+            Map<String, CustomBlockDefinition> definitions = new HashMap<>();
             for (File file : FileUtils.listFiles(customItemsDir, new String[] {"yml"}, true)) {
                 YamlConfiguration yaml = main.loadYamlFromFile(file, true, false, debug, "");
                 yaml.getKeys(false).forEach(key -> {
@@ -426,9 +693,13 @@ public class CustomBlockEvents implements Listener {
                         }
                         idToDefinitionFilePath.put(key, file.getPath());
                         idToDefinitionFile.put(key, yaml);
+                        CustomBlockDefinition definition = new CustomBlockDefinition(key, file.getPath(), yaml);
+                        definition.getErrors().forEach(error -> console.severe(ChatColor.RED + error));
+                        definitions.put(key, definition);
                     }
                 });
             }
+            registry.setDefinitions(definitions.values());
         } else {
             main.saveResource("CustomItems" + File.separator + "demo.yml", false);
             console.info(ChatColor.DARK_AQUA + "Created the file CustomItems" + File.separator + "demo.yml because the CustomItems folder did not exist");
@@ -436,13 +707,41 @@ public class CustomBlockEvents implements Listener {
 
         debug = customBlockConfig.getInt("Global.debug", 0);
         MultiBlockChangeWrap.setDebug(debug);
+        injectChunkDisguises = customBlockConfig.getBoolean("Global.inject-chunk-disguises", false);
+        chunkLoadDelay = Math.max(customBlockConfig.getInt("Global.chunk-load-delay", 5), 0);
+        sendQueue.start(customBlockConfig.getInt("Global.chunk-send-packet-budget", 200), customBlockConfig.getDouble("Global.chunk-send-time-budget", 5),
+                customBlockConfig.getInt("Global.near-chunk-distance", 0), customBlockConfig.getInt("Global.far-chunk-send-rate", 1), debug);
+        prefetcher.start(customBlockConfig.getInt("Global.prefetch-distance", 2), debug);
+        disguiseDataCache.clear();
+        disguiseStateIds.clear();
         helper.reload();
+        recalculator.start(customBlockConfig.getInt("Global.recalculate-chunk-budget", 20), customBlockConfig.getDouble("Global.recalculate-time-budget", 2), debug);
     }
 
     public CustomBlockHelper getCustomBlockHelper() {
         return helper;
     }
 
+    public SentDisguiseTracker getSentDisguises() {
+        return sentDisguises;
+    }
+
+    public DisguiseSendQueue getSendQueue() {
+        return sendQueue;
+    }
+
+    public ChunkPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    public DisguiseRecalculator getRecalculator() {
+        return recalculator;
+    }
+
+    public CustomBlockRegistry getRegistry() {
+        return registry;
+    }
+
     public Map<String, String> getIdToDefinitionFilePath() {
         return idToDefinitionFilePath;
     }
@@ -1,18 +1,19 @@
 package me.mackblue.worldofzombies.modules.customblocks;
 
+import com.comphenix.protocol.wrappers.WrappedBlockData;
 import de.tr7zw.nbtapi.NBTCompound;
 import de.tr7zw.nbtapi.NBTContainer;
 import de.tr7zw.nbtapi.NBTItem;
 import me.mackblue.worldofzombies.WorldOfZombies;
+import me.mackblue.worldofzombies.util.BlockStateCache;
+import me.mackblue.worldofzombies.util.BlockStateProperties;
 import me.mackblue.worldofzombies.util.MultiBlockChangeWrap;
 import org.bukkit.*;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.PistonMoveReaction;
 import org.bukkit.block.data.BlockData;
-import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.*;
 import org.bukkit.event.Cancellable;
@@ -20,8 +21,8 @@ import org.bukkit.event.Event;
 import org.bukkit.inventory.ItemStack;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 public class CustomBlockHelper {
@@ -29,6 +30,7 @@ public class CustomBlockHelper {
     private final WorldOfZombies main;
     private final CustomBlockEvents customBlockEvents;
     private final Logger console;
+    private final CustomBlockDatabase database;
 
     private FileConfiguration config;
     private FileConfiguration customBlockConfig;
@@ -36,18 +38,26 @@ public class CustomBlockHelper {
     private int debug;
 
     //private Map<Player, MultiBlockChangeWrap[][][]> subChunkList = new HashMap<>();
-    private double chunkReloadID;
     private List<String> recalculateChunkDisguisesBlacklist;
-    private Map<String, String> idToDefinitionFilePath;
-    private Map<String, YamlConfiguration> idToDefinitionFile;
+    private CustomBlockRegistry registry;
+    //world name -> packed block positions whose disguise will be recalculated on the next tick
+    private final Map<String, Set<Long>> pendingDisguiseRecalculations;
+    private final ChunkDisguiseCache disguiseCache;
+    private final DisguiseTransformCache transformCache;
 
     //constructor to initialize fields and load custom block config file
     public CustomBlockHelper(WorldOfZombies main, CustomBlockEvents customBlockEvents) {
         this.main = main;
         this.console = main.getLogger();
         this.customBlockEvents = customBlockEvents;
+        this.pendingDisguiseRecalculations = new ConcurrentHashMap<>();
+        this.disguiseCache = new ChunkDisguiseCache();
+        this.transformCache = new DisguiseTransformCache();
+        this.database = new CustomBlockDatabase(main, main.loadYamlFromFile(new File(main.getDataFolder(), "custom-blocks.yml"), false, false, 0, ""));
 
         reload();
+        database.indexLoadedChunks();
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(main, this::recalculatePendingDisguises, 1, 1);
     }
 
     public void reload() {
@@ -57,152 +67,211 @@ public class CustomBlockHelper {
 
         debug = customBlockConfig.getInt("Global.debug", 0);
         recalculateChunkDisguisesBlacklist = customBlockConfig.getStringList("Global.recalculate-chunk-disguises-blacklist");
-        idToDefinitionFilePath = customBlockEvents.getIdToDefinitionFilePath();
-        idToDefinitionFile = customBlockEvents.getIdToDefinitionFile();
-        chunkReloadID = Math.random();
+        registry = customBlockEvents.getRegistry();
+        disguiseCache.clear();
+        transformCache.clear();
+        transformCache.setMaxSize(customBlockConfig.getInt("Global.disguise-data-cache-size", 10000));
+        database.setDebug(debug);
+        database.setMaxLoadedChunks(customBlockConfig.getInt("Global.database-max-loaded-chunks", 0));
+        database.startSaveTask(customBlockConfig.getInt("Global.database-save-interval", 100));
+
+        if (database.formatsChanged(customBlockConfig)) {
+            console.warning(ChatColor.YELLOW + "The custom block \"database-format\" or \"database-world-formats\" was changed, but the plugin will keep using the previous formats until the server is restarted");
+        }
     }
 
-    //adds all the blocks in the file for a chunk to their respective MultiBlockChange packets based on subChunk section
+    //sends the disguises of all the logged blocks in a chunk to a player in one MultiBlockChange packet per subChunk, and returns the number of packets
+    //the packets' contents are cached for each version of the chunk, so every other player that is sent the chunk only costs the sending
     public int loadLoggedBlocksInChunk(Player player, Chunk chunk) {
-        boolean recalculateDisguises = true;
-        int blockCount = 0;
         int chunkX = chunk.getX();
         int chunkZ = chunk.getZ();
         World world = chunk.getWorld();
         String chunkString = world.getName() + ", " + chunkX + ", " + chunkZ;
 
-        File chunkFolder = new File(main.getDataFolder() + File.separator + "BlockDatabase" + File.separator + world.getName());
-        if (!chunkFolder.exists()) {
+        LoggedChunk loggedChunk = database.getChunk(world.getName(), chunkX, chunkZ);
+        if (loggedChunk.isEmpty()) {
             if (debug >= 4) {
-                console.info(ChatColor.BLUE + "No custom blocks were loaded because the database folder for the world \"" + world.getName() + "\" does not exist");
+                console.info(ChatColor.BLUE + "There are no custom blocks in the chunk at: " + chunkString);
             }
             return 0;
         }
 
-        File file = new File(chunkFolder.getPath(), "chunk." + chunkX + "." + chunkZ + ".yml");
-        YamlConfiguration logYaml = main.loadYamlFromFile(file, false, false, debug, ChatColor.BLUE + "There are no custom blocks in the chunk at: " + chunkString + "   (no file)");
-        if (logYaml == null) {
-            return 0;
+        if (!hasCurrentDisguises(world.getName(), loggedChunk.getSnapshot())) {
+            recalculateChunkDisguises(world, loggedChunk);
         }
 
-        if (main.removeEmpty(file, true, Arrays.asList("chunk-reload-id"), debug)) {
-            if (debug >= 4) {
-                console.info(ChatColor.BLUE + "There are no custom blocks in the chunk at: " + chunkString + "   (removed empty file)");
+        int blockCount = 0;
+        int packets = 0;
+        SentDisguiseTracker tracker = customBlockEvents.getSentDisguises();
+        List<SectionDisguises> sections = getChunkDisguises(world, loggedChunk, false);
+        for (SectionDisguises section : sections) {
+            //sections whose disguises the client already has (like when they were injected into the chunk packet) are not sent again
+            if (tracker.hasAll(player, chunkX, section.getSubChunkY(), chunkZ, section.getLocations(), section.getStateIds())) {
+                tracker.countSuppressed(section.size());
+                continue;
+            }
+
+            //the packets already contain their disguises, so they are sent without running them through the MultiBlockChange listener again
+            MultiBlockChangeWrap.sendPacket(player, section.getPacket(), false);
+            for (int i = 0; i < section.size(); i++) {
+                short location = section.getLocations()[i];
+                tracker.update(player, chunkX << 4 | (location >> 8 & 0xF), section.getSubChunkY() << 4 | (location & 0xF), chunkZ << 4 | (location >> 4 & 0xF), section.getStateIds()[i]);
+            }
+            blockCount += section.size();
+            packets++;
+
+            if (debug >= 5) {
+                console.info(ChatColor.GRAY + "Loaded " + section.size() + " blocks in the subChunk at " + world.getName() + ", " + chunkX + ", " + section.getSubChunkY() + ", " + chunkZ + " by " + player.getName());
             }
-            return 0;
         }
 
-        Set<String> sections = logYaml.getKeys(false);
+        if (debug >= 1 && blockCount != 0) {
+            console.info(ChatColor.DARK_GREEN + "Loaded " + blockCount + " blocks in the chunk at " + chunkX + ", " + chunkZ + " in " + packets + " custom MultiBlockChange packets by " + player.getName());
+        }
+        return packets;
+    }
 
-        if (!recalculateChunkDisguisesBlacklist.contains(world.getName())) {
-            if (logYaml.contains("chunk-reload-id")) {
-                if (logYaml.getDouble("chunk-reload-id") != chunkReloadID) {
-                    //reload id is different, so disguised-block should be recalculated
-                    logYaml.set("chunk-reload-id", chunkReloadID);
-                } else {
-                    //reload id is the same, so disguised-block should not be recalculated
-                    recalculateDisguises = false;
+    //recalculates and logs the "disguised-block" of every logged block in a chunk whose definition changed since it was logged, or of every block if the world is in the "recalculate-chunk-disguises-blacklist"
+    //returns the number of logged blocks that were changed, and the chunk is only marked to be saved if there were any
+    public int recalculateChunkDisguises(World world, LoggedChunk loggedChunk) {
+        boolean all = recalculateChunkDisguisesBlacklist.contains(world.getName());
+        int changed = 0;
+        for (int subChunkY : loggedChunk.getSubChunkYs()) {
+            PalettedSection section = loggedChunk.getSection(subChunkY);
+            for (int index = section.nextIndex(0); index != -1; index = section.nextIndex(index + 1)) {
+                LoggedBlock loggedBlock = section.get(index);
+                if (!all && hasCurrentDisguise(loggedBlock)) {
+                    continue;
+                }
+                int x = loggedChunk.getX(index);
+                int y = loggedChunk.getY(subChunkY, index);
+                int z = loggedChunk.getZ(index);
+
+                DisguiseTransformCache.Result disguisedData = transformCustomBlock(world.getBlockAt(x, y, z), loggedBlock.getId(), true, loggedBlock.isSecondBlock());
+                if (disguisedData.getAsString() != null) {
+                    LoggedBlock recalculated = loggedBlock.withDisguise(disguisedData.getAsString(), getDisguiseHash(loggedBlock));
+                    if (recalculated.equals(loggedBlock)) {
+                        continue;
+                    }
+                    loggedChunk.put(x, y, z, recalculated);
+                    changed++;
+                    if (debug >= 4) {
+                        console.info(ChatColor.BLUE + "The logged \"disguised-block\" for the block at " + world.getName() + ", " + x + ", " + y + ", " + z + " was recalculated because its custom block definition changed or because this world is included in the \"recalculate-chunk-disguises-blacklist\"");
+                    }
                 }
-            } else {
-                logYaml.set("chunk-reload-id", chunkReloadID);
             }
         }
 
-        //if a top level key is a ConfigurationSection (by default they all will be), get and use data from its keys
-        for (String sectionString : sections) {
-            if (logYaml.isConfigurationSection(sectionString)) {
-                ConfigurationSection subChunkSection = logYaml.getConfigurationSection(sectionString);
-                int subChunkY = Integer.parseInt(sectionString.substring("subChunk".length()));
-                String subChunkString = world.getName() + ", " + chunkX + ", " + subChunkY + ", " + chunkZ;
-
-                Set<String> loggedBlocks = subChunkSection.getKeys(false);
-                if (!loggedBlocks.isEmpty()) {
-                    MultiBlockChangeWrap packet = new MultiBlockChangeWrap(chunkX, subChunkY, chunkZ);
-
-                    //for each location in the subChunk, get (or recalculate and set) the child "disguised-data"
-                    for (String loggedLocationString : loggedBlocks) {
-                        if (subChunkSection.isConfigurationSection(loggedLocationString)) {
-                            ConfigurationSection locationSection = subChunkSection.getConfigurationSection(loggedLocationString);
-                            String[] locParts = loggedLocationString.split("_");
-                            if (locParts.length < 3) {
-                                console.severe(ChatColor.RED + "A custom block could not be loaded because the location key \"" + loggedLocationString + "\" in the subChunk at " + subChunkString + " is invalid");
-                                continue;
-                            }
+        if (changed != 0) {
+            database.markDirty(loggedChunk);
+        }
+        return changed;
+    }
 
-                            Location loc = new Location(world, Double.parseDouble(locParts[0]), Double.parseDouble(locParts[1]), Double.parseDouble(locParts[2]));
-                            String locString = world.getName() + ", " + locParts[0] + ", " + locParts[1] + ", " + locParts[2];
-                            String id = locationSection.getString("id");
-                            boolean secondBlock = locationSection.getBoolean("secondBlock", false);
-                            String disguisedPathEnd = secondBlock ? "disguised-block2" : "disguised-block";
-
-                            BlockData disguisedData;
-                            if (recalculateDisguises) {
-                                disguisedData = createCustomBlockData(world.getBlockAt(loc), id, true, secondBlock);
-                                if (disguisedData != null) {
-                                    locationSection.set("disguised-block", disguisedData.getAsString());
-                                    if (debug >= 4) {
-                                        console.info(ChatColor.BLUE + "The logged \"disguised-block\" for the block at " + locString + " was recalculated because the logged and plugin's chunk reload ID did not match or because this world is included in the \"recalculate-chunk-disguises-blacklist\"");
-                                    }
-                                }
-                            } else {
-                                String disguisedBlockString = locationSection.getString("disguised-block");
-                                try {
-                                    disguisedData = Bukkit.createBlockData(disguisedBlockString);
-                                    if (debug >= 4) {
-                                        console.info(ChatColor.BLUE + "The disguised BlockData for the block at " + locString + " was taken directly from the logged \"disguised-block\" because the logged and plugin's chunk reload ID matched");
-                                    }
-                                } catch (IllegalArgumentException e) {
-                                    disguisedData = createCustomBlockData(world.getBlockAt(loc), id, true, secondBlock);
-                                    if (debug >= 3) {
-                                        console.warning(ChatColor.YELLOW + "The logged \"disguised-block\" for the block at " + locString + " was invalid or null, so it was recalculated");
-                                    }
-                                }
-                            }
+    //builds the disguise packet contents for a chunk ahead of time on a worker thread, and returns whether they were built (or already cached)
+    //nothing is built if any disguise would have to be recalculated from the real blocks, since that can only be done on the main thread
+    public boolean prefetchChunkDisguises(World world, LoggedChunk loggedChunk) {
+        LoggedChunkSnapshot snapshot = loggedChunk.getSnapshot();
+        if (disguiseCache.contains(world.getName(), loggedChunk.getChunkX(), loggedChunk.getChunkZ(), snapshot.getVersion())) {
+            return true;
+        }
+        return hasCurrentDisguises(world.getName(), snapshot) && getChunkDisguises(world, loggedChunk, true) != null;
+    }
 
-                            if (disguisedData == null) {
-                                //no error message because error messages are handled in createBlockData()
-                                continue;
-                            }
+    //gets the disguise packet contents for a chunk from the cache, or builds them from the logged "disguised-block" values if the chunk changed since they were cached
+    //logged disguises that are missing or invalid are recalculated and logged while building, unless this is a prefetch, which returns null instead
+    private List<SectionDisguises> getChunkDisguises(World world, LoggedChunk loggedChunk, boolean prefetch) {
+        int chunkX = loggedChunk.getChunkX();
+        int chunkZ = loggedChunk.getChunkZ();
+        LoggedChunkSnapshot snapshot = loggedChunk.getSnapshot();
+        if (!prefetch) {
+            List<SectionDisguises> cached = disguiseCache.get(world.getName(), chunkX, chunkZ, snapshot.getVersion());
+            if (cached != null) {
+                return cached;
+            }
+        }
 
-                            if (disguisedData.getMaterial().equals(Material.AIR)) {
-                                if (debug >= 4) {
-                                    console.warning(ChatColor.YELLOW + "(THIS CAN PROBABLY BE IGNORED IF THIS IS DURING A CHUNK BEING LOADED) Did not load the \"" + id + "\" at " + locString + " because its source \"" + disguisedPathEnd + "\" is empty");
-                                }
-                            } else {
-                                packet.addBlock(loc, disguisedData);
-                                blockCount++;
+        List<SectionDisguises> sections = new ArrayList<>();
+        boolean modified = false;
+        for (int subChunkY : loggedChunk.getSubChunkYs()) {
+            PalettedSection section = snapshot.getSection(subChunkY);
+            if (section == null) {
+                continue;
+            }
+
+            MultiBlockChangeWrap builder = MultiBlockChangeWrap.reuse(chunkX, subChunkY, chunkZ);
+            for (int index = section.nextIndex(0); index != -1; index = section.nextIndex(index + 1)) {
+                LoggedBlock loggedBlock = section.get(index);
+                int x = loggedChunk.getX(index);
+                int y = loggedChunk.getY(subChunkY, index);
+                int z = loggedChunk.getZ(index);
+                String locString = world.getName() + ", " + x + ", " + y + ", " + z;
+
+                WrappedBlockData data = customBlockEvents.getDisguiseData(loggedBlock.getDisguisedBlock());
+                if (data == null) {
+                    if (prefetch) {
+                        return null;
+                    }
 
-                                if (debug >= 5) {
-                                    console.info(ChatColor.GRAY + "Loaded the \"" + id + "\" at " + locString + " in the subChunk at " + subChunkString + " by " + player.getName());
-                                }
-                            }
+                    DisguiseTransformCache.Result disguisedData = transformCustomBlock(world.getBlockAt(x, y, z), loggedBlock.getId(), true, loggedBlock.isSecondBlock());
+                    if (disguisedData.getAsString() == null) {
+                        //no error message because error messages are handled in createBlockData()
+                        continue;
+                    }
+                    if (disguisedData.isAir()) {
+                        if (debug >= 4) {
+                            console.warning(ChatColor.YELLOW + "Did not load the \"" + loggedBlock.getId() + "\" at " + locString + " because its source \"" + (loggedBlock.isSecondBlock() ? "disguised-block2" : "disguised-block") + "\" is empty");
                         }
+                        continue;
+                    }
+
+                    loggedChunk.put(x, y, z, loggedBlock.withDisguise(disguisedData.getAsString(), getDisguiseHash(loggedBlock)));
+                    modified = true;
+                    data = disguisedData.getWrapped();
+                    if (debug >= 3) {
+                        console.warning(ChatColor.YELLOW + "The logged \"disguised-block\" for the block at " + locString + " was invalid or null, so it was recalculated");
                     }
-                    packet.sendPacket(player);
                 }
+
+                builder.addBlock((short) ((x & 0xF) << 8 | (z & 0xF) << 4 | (y & 0xF)), data);
             }
-        }
 
-        try {
-            logYaml.save(file);
-        } catch (IOException e) {
-            console.severe(ChatColor.RED + "Could not save the file for the chunk at " + chunkString);
+            if (builder.size() != 0) {
+                sections.add(new SectionDisguises(chunkX, subChunkY, chunkZ, builder.getBlockLocs(), builder.getBlockData()));
+            }
         }
 
-        return blockCount;
+        //recalculated disguises change the chunk, so the result is cached for the chunk's new version
+        if (modified) {
+            database.markDirty(loggedChunk);
+        }
+        disguiseCache.put(world.getName(), chunkX, chunkZ, prefetch ? snapshot.getVersion() : loggedChunk.getSnapshot().getVersion(), sections, prefetch);
+        return sections;
     }
 
     //wrapper method for calculating a custom block's disguised or actual BlockData, including sync-states, match-states, and force-actual-states
     public BlockData createCustomBlockData(Block block, String id, boolean disguised, boolean secondBlock) {
+        return transformCustomBlock(block, id, disguised, secondBlock).createData();
+    }
+
+    //calculates a custom block's BlockData like createCustomBlockData(), but returns the shared result with its string and packet data
+    //the result only depends on the custom block and the real block's state (after force-actual-states), so it is cached for each of them
+    public DisguiseTransformCache.Result transformCustomBlock(Block block, String id, boolean disguised, boolean secondBlock) {
         createForcedBlockData(block, id, secondBlock);
 
-        String originalBlockDataString = block.getBlockData().getAsString();
-        BlockData matchedData = checkMatchStates(originalBlockDataString, id, disguised, secondBlock);
-        if (matchedData != null) {
-            return matchedData;
+        BlockData originalBlockData = block.getBlockData();
+        int numericId = CustomBlockRegistry.getNumericId(id);
+        int stateId = BlockStateCache.getStateId(BlockStateCache.getHandle(originalBlockData));
+        DisguiseTransformCache.Result cached = transformCache.get(numericId, disguised, secondBlock, stateId);
+        if (cached != null) {
+            return cached;
         }
 
-        return createSyncedBlockData(originalBlockDataString, id, disguised, secondBlock);
+        BlockData data = checkMatchStates(originalBlockData, id, disguised, secondBlock);
+        if (data == null) {
+            data = createSyncedBlockData(originalBlockData, id, disguised, secondBlock);
+        }
+        return transformCache.put(numericId, disguised, secondBlock, stateId, data);
     }
 
     //handles logic for placing custom blocks - adapted from BlockPlaceEvent for compatibility with BlockMultiPlaceEvent
@@ -212,39 +281,19 @@ public class CustomBlockHelper {
 
         NBTCompound wozItemComp = new NBTItem(item).getOrCreateCompound("WoZItem");
         String id = wozItemComp.getString("CustomItem");
-        String sourceFilePath = idToDefinitionFilePath.get(id);
+        CustomBlockDefinition definition = registry.getDefinition(id);
+        String sourceFilePath = definition == null ? null : definition.getFilePath();
 
         int x = block.getX();
         int y = block.getY();
         int z = block.getZ();
-        String path = "subChunk" + (block.getY() >> 4) + "." + x + "_" + y + "_" + z + "." + "id";
-        String chunkString = world.getName() + ", " + chunk.getX() + ", " + chunk.getZ();
         String locString = world.getName() + ", " + x + ", " + y + ", " + z;
 
         if (wozItemComp.getBoolean("IsCustomItem") && sourceFilePath != null) {
-
-            YamlConfiguration sourceYaml = idToDefinitionFile.get(id);
-            if (sourceYaml == null) {
-                console.severe(ChatColor.RED + "An error occurred while trying to load the source file for the custom block \"" + id + "\"");
-                return;
-            }
-
-            if (!sourceYaml.isConfigurationSection(id)) {
-                console.severe(ChatColor.RED + "Could not log the custom block \"" + id + "\" because it does not exist in the file " + sourceFilePath);
-                return;
-            }
-
             String actualPathEnd = secondBlock ? "actual-block2" : "actual-block";
-            String actual = sourceYaml.getString(id + ".block." + actualPathEnd);
-
-            File file = new File(main.getDataFolder() + File.separator + "BlockDatabase" + File.separator + world.getName(), "chunk." + chunk.getX() + "." + chunk.getZ() + ".yml");
-            YamlConfiguration yaml = main.loadYamlFromFile(file, true, false, debug, "");
-            if (yaml == null) {
-                console.severe(ChatColor.RED + "An error occurred while loading or creating the database file for the chunk at " + chunk.getX() + ", " + chunk.getZ());
-                return;
-            }
+            LoggedChunk loggedChunk = database.getChunk(world.getName(), chunk.getX(), chunk.getZ());
 
-            if (actual != null) {
+            if (definition.getBlockData(false, secondBlock) != null) {
                 BlockData actualData = createCustomBlockData(block, id, false, secondBlock);
                 if (actualData != null) {
                     block.setBlockData(actualData);
@@ -253,22 +302,12 @@ public class CustomBlockHelper {
                 console.warning(ChatColor.YELLOW + "Did not change the server-side block for the custom block \"" + id + "\" at " + locString + " because its source \"" + actualPathEnd + "\" is empty");
             }
 
-            yaml.set(path, id);
-            if (secondBlock) {
-                yaml.set(path.substring(0, path.length() - "id".length()) + "secondBlock", true);
-            }
+            loggedChunk.put(x, y, z, new LoggedBlock(definition.getNumericId(), secondBlock, null));
             if (debug >= 2) {
                 console.info(ChatColor.AQUA + player.getName() + " added the custom block \"" + id + "\" at " + locString);
             }
 
-            try {
-                yaml.save(file);
-                if (debug >= 2) {
-                    console.info(ChatColor.DARK_AQUA + "Saved the file for the chunk at " + chunkString);
-                }
-            } catch (IOException e) {
-                console.severe(ChatColor.RED + "Could not save the file for the chunk at " + chunkString);
-            }
+            database.markDirty(loggedChunk);
         } else if (wozItemComp.getBoolean("IsCustomItem") && sourceFilePath == null && debug >= 3) {
             console.warning(ChatColor.YELLOW + player.getName() + " placed " + block.getBlockData().getAsString() + " at " + locString + " which contains the tags \"IsCustomBlock:" + wozItemComp.getBoolean("IsCustomItem") + "\" and \"CustomBlock:" + id + "\", but \"" + id + "\" is not a valid custom block");
         }
@@ -291,13 +330,13 @@ public class CustomBlockHelper {
             }
             //custom particles and sounds
             if (destroyEffects) {
-                YamlConfiguration yaml = idToDefinitionFile.get(id);
-                if (yaml != null) {
+                CustomBlockDefinition definition = registry.getDefinition(id);
+                if (definition != null) {
 
                     try {
                         Object secondBlockObj = getLoggedObjectFromLocation(loc, "secondBlock", false);
                         boolean secondBlock = secondBlockObj != null && (boolean) secondBlockObj;
-                        String particleDataString = secondBlock ? yaml.getString(id + ".block.destroy-particles2") : yaml.getString(id + ".block.destroy-particles");
+                        String particleDataString = definition.getDestroyParticles(secondBlock);
 
                         if (particleDataString == null) {
                             particleDataString = (String) getLoggedObjectFromLocation(loc, "disguised-block");
@@ -308,7 +347,7 @@ public class CustomBlockHelper {
                         BlockData particleData = Bukkit.createBlockData(particleDataString);
 
 
-                        String soundString = yaml.getString(id + ".block.destroy-sound");
+                        String soundString = definition.getDestroySound();
                         Sound sound = null;
                         if (!secondBlock) {
                             if (soundString == null) {
@@ -339,311 +378,128 @@ public class CustomBlockHelper {
         }
     }
 
-    public BlockData createSyncedBlockData(String syncFromBlockDataString, String id, boolean disguise, boolean secondBlock) {
-        return createSyncedBlockData(syncFromBlockDataString, id, null, null, disguise, secondBlock);
-    }
-
-    //syncs the specified states from syncFromBlockDataString to disguised-block, actual-block, or a parameter BlockData
+    //syncs the states in the definition's sync-states from syncFromBlockData to its disguised-block or actual-block
     //null return value indicates an error, and a BlockData with a Material of AIR indicates that the source disguised-block or actual-block does not exist
-    public BlockData createSyncedBlockData(String syncFromBlockDataString, String id, BlockData syncToBlockData, ConfigurationSection theSection, boolean disguise, boolean secondBlock) {
-        ConfigurationSection section;
-        if (theSection != null) {
-            section = theSection;
-        } else {
-            YamlConfiguration sourceYaml = idToDefinitionFile.get(id);
-            if (sourceYaml == null) {
-                console.severe(ChatColor.RED + "The custom block \"" + id + "\" could not be loaded because its source file does not exist");
-                return null;
-            }
+    public BlockData createSyncedBlockData(BlockData syncFromBlockData, String id, boolean disguise, boolean secondBlock) {
+        CustomBlockDefinition definition = registry.getDefinition(id);
+        if (definition == null) {
+            console.severe(ChatColor.RED + "The custom block \"" + id + "\" could not be loaded because its source file does not exist");
+            return null;
+        }
 
-            if (!sourceYaml.isConfigurationSection(id + ".block")) {
-                console.severe(ChatColor.RED + "The custom block \"" + id + "\" could not be loaded because its source \"block\" section is empty");
-                return null;
-            }
-            section = sourceYaml.getConfigurationSection(id + ".block");
+        if (!definition.hasBlockSection()) {
+            console.severe(ChatColor.RED + "The custom block \"" + id + "\" could not be loaded because its source \"block\" section is empty");
+            return null;
         }
 
         String dataPath = disguise ? "disguised-block" : "actual-block";
-        String syncPath = disguise ? "disguised-sync-states" : "actual-sync-states";
         if (secondBlock) {
             dataPath += "2";
-            syncPath += "2";
         }
 
-        BlockData unsyncData;
-        if (syncToBlockData != null) {
-            unsyncData = syncToBlockData;
-        } else if (section.contains(dataPath)) {
-            try {
-                unsyncData = Bukkit.createBlockData(section.getString(dataPath));
-                if (unsyncData.getMaterial().isEmpty()) {
-                    console.severe(ChatColor.RED + "The source \"" + dataPath + "\" for the custom block \"" + id + "\" cannot be a type of air");
-                    return null;
-                }
-            } catch (IllegalArgumentException e) {
-                console.severe(ChatColor.RED + "Could not load the BlockData for the custom block \"" + id + "\" because its source \"" + dataPath + "\" is invalid");
-                return null;
-            }
-        } else {
+        ParsedBlockData source = definition.getBlockData(disguise, secondBlock);
+        if (source == null) {
             return Bukkit.createBlockData(Material.AIR);
+        } else if (!source.isValid()) {
+            console.severe(ChatColor.RED + "Could not load the BlockData for the custom block \"" + id + "\" because its source \"" + dataPath + "\" is invalid");
+            return null;
+        } else if (source.isAir()) {
+            console.severe(ChatColor.RED + "The source \"" + dataPath + "\" for the custom block \"" + id + "\" cannot be a type of air");
+            return null;
         }
 
-        //if the specific path with or without "2" does not exist
-        if (!section.contains(syncPath)) {
-            //if the specific path has "2", check again without the "2"
-            if (syncPath.contains("2")) {
-                syncPath = syncPath.substring(0, syncPath.length() - 1);
-
-                //if the specific path without a "2" does not exist, check the base path with a "2"
-                if (!section.contains(syncPath)) {
-                    syncPath = "sync-states2";
-
-                    //if the base path with a "2" does not exist, check the base path
-                    if (!section.contains(syncPath)) {
-                        syncPath = "sync-states";
-                        if (!section.contains(syncPath)) {
-                            return unsyncData;
-                        }
-                    }
-                }
-            } else {
-                //if the specific path without a "2" doesn't exist, check the base path
-                syncPath = "sync-states";
-                if (!section.contains(syncPath)) {
-                    return unsyncData;
-                }
-            }
-        }
-
-        List<String> syncList = section.getStringList(syncPath);
-        String syncString = unsyncData.getMaterial().toString().toLowerCase() + "[";
-
-        for (String state : syncList) {
-            if (syncFromBlockDataString.contains(state)) {
-                String afterState = syncFromBlockDataString.substring(syncFromBlockDataString.indexOf(state));
-                int stateEnd = afterState.indexOf("]");
-                if (afterState.contains(",")) {
-                    if (afterState.indexOf(",") < stateEnd) {
-                        stateEnd = afterState.indexOf(",");
-                    }
-                }
-                syncString += afterState.substring(0, stateEnd) + ",";
-            }
-        }
+        return syncStates(syncFromBlockData, id, source, definition.getSyncStates(disguise, secondBlock), dataPath);
+    }
 
-        if (syncString.contains(",")) {
-            syncString = syncString.substring(0, syncString.lastIndexOf(",")) + "]";
-        } else {
-            syncString = syncString.substring(0, syncString.length() - 1);
+    //copies the states in syncList from syncFromBlockData to a copy of unsyncData, one property at a time
+    private BlockData syncStates(BlockData syncFromBlockData, String id, ParsedBlockData unsyncData, List<String> syncList, String dataPath) {
+        if (syncList == null || syncList.isEmpty()) {
+            return unsyncData.createData();
         }
 
         try {
-            BlockData syncData = Bukkit.createBlockData(syncString);
-            return unsyncData.merge(syncData);
+            return BlockStateCache.toBlockData(BlockStateProperties.copy(BlockStateCache.getHandle(syncFromBlockData), unsyncData.getHandle(), syncList));
         } catch (IllegalArgumentException e) {
             console.severe(ChatColor.RED + "Could not sync the states of the custom block \"" + id + "\" because its source \"" + dataPath + "\" is incompatible with one or more tags of the server-side block. " + e.getMessage());
-            return unsyncData;
+            return unsyncData.createData();
         }
     }
 
-    //checks the disguised or actual match-states section and returns null if no conditions are met or the disguised-block inside the first matching state section
-    public BlockData checkMatchStates(String originalBlockDataString, String id, boolean disguised, boolean secondBlock) {
-        YamlConfiguration yaml = idToDefinitionFile.get(id);
-        String path = disguised ? "disguised-match-states" : "actual-match-states";
-        if (yaml != null && yaml.isConfigurationSection(id + ".block." + path)) {
-            ConfigurationSection matchStatesSection = yaml.getConfigurationSection(id + ".block." + path);
-            Set<String> states = matchStatesSection.getKeys(false);
-
-            for (String state : states) {
-                if (matchStatesSection.isConfigurationSection(state)) {
-                    BlockData data = checkMatchStatesSection(originalBlockDataString, id, matchStatesSection.getConfigurationSection(state), disguised, secondBlock);
-                    if (data != null) {
-                        return data;
-                    }
-                }
-            }
+    //checks the disguised or actual match-states of a definition and returns null if no conditions are met or the disguised-block inside the first matching state section
+    public BlockData checkMatchStates(BlockData originalBlockData, String id, boolean disguised, boolean secondBlock) {
+        CustomBlockDefinition definition = registry.getDefinition(id);
+        if (definition == null || definition.getMatchStates(disguised).isEmpty()) {
+            return null;
         }
 
-        return null;
-    }
-
-    //recursive element of checkMatchStates() to actually check the states
-    public BlockData checkMatchStatesSection(String originalBlockDataString, String id, ConfigurationSection section, boolean disguised, boolean secondBlock) {
-        if (section.contains("state")) {
-            String matchKey = section.getName();
-            //removes extra digits from the end of a state name
-            while (Character.isDigit(matchKey.charAt(matchKey.length() - 1))) {
-                matchKey = matchKey.substring(0, matchKey.length() - 1);
-            }
-
-            String matchValue = section.get("state").toString();
-
-            if (originalBlockDataString.contains(matchKey)) {
-                String afterState = originalBlockDataString.substring(originalBlockDataString.indexOf(matchKey));
-                int stateEnd = afterState.indexOf("]");
-                if (afterState.contains(",")) {
-                    if (afterState.indexOf(",") < stateEnd) {
-                        stateEnd = afterState.indexOf(",");
-                    }
-                }
-
-                String value = afterState.substring((matchKey + "=").length(), stateEnd);
-                if (value.equalsIgnoreCase(matchValue)) {
-                    String pathStart = disguised ? "disguised" : "actual";
-                    String disguisePath = pathStart + "-block";
-                    if (secondBlock && section.contains(disguisePath + "2")) {
-                        disguisePath += "2";
-                    }
-
-                    if (section.contains(disguisePath)) {
-                        try {
-                            BlockData unsyncData = Bukkit.createBlockData(section.getString(disguisePath));
-                            return createSyncedBlockData(originalBlockDataString, id, unsyncData, section, true, secondBlock);
-                        } catch (IllegalArgumentException e) {
-                            console.severe(ChatColor.RED + "Could not load the disguised BlockData in the \"" + pathStart + "-match-states\" section of the custom block \"" + id + "\" because the BlockData at \"" + section.getCurrentPath() + "." + disguisePath + "\" is invalid");
-                            return null;
-                        }
-                    } else {
-                        for (String state : section.getKeys(false)) {
-                            if (section.isConfigurationSection(state)) {
-                                BlockData data = checkMatchStatesSection(originalBlockDataString, id, section.getConfigurationSection(state), disguised, secondBlock);
-                                if (data != null) {
-                                    return data;
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        return null;
+        MatchStateTree.Result result = definition.getMatchStates(disguised).evaluate(BlockStateCache.getHandle(originalBlockData), secondBlock);
+        return result == null ? null : syncStates(originalBlockData, id, result.getBlockData(), result.getSyncStates(), result.getPath());
     }
 
     //sets the states of the actual block
     public BlockData createForcedBlockData(Block block, String id, boolean secondBlock) {
-        YamlConfiguration yaml = idToDefinitionFile.get(id);
+        CustomBlockDefinition definition = registry.getDefinition(id);
 
-        if (yaml != null) {
-            String blockDataString = block.getBlockData().getAsString();
-            String path = "force-actual-states";
-            if (secondBlock && yaml.contains(path + "2")) {
-                path += "2";
-            }
-
-            if (yaml.isConfigurationSection(id + ".block." + path)) {
-                ConfigurationSection section = yaml.getConfigurationSection(id + ".block." + path);
-                Set<String> states = section.getKeys(false);
-
-                int modified = 0;
-                StringBuilder forcedBlockDataStringBuilder = new StringBuilder(blockDataString);
-                for (String forceState : states) {
-                    String forceValue = section.getString(forceState);
-
-                    if (forcedBlockDataStringBuilder.indexOf(forceState) > 0) {
-                        //if the original string contains this state, get the full state
-                        String fullState = forcedBlockDataStringBuilder.substring(forcedBlockDataStringBuilder.indexOf(forceState));
-                        int localStateEnd = fullState.indexOf("]") + 1;
-                        if (fullState.contains(",")) {
-                            if (fullState.indexOf(",") < localStateEnd) {
-                                localStateEnd = fullState.indexOf(",") + 1;
-                                fullState = fullState.substring(0, localStateEnd);
-                            }
-                        }
+        if (definition != null && definition.getForcedStates(secondBlock) != null) {
+            String path = definition.getForcedStatesPath(secondBlock);
+            Object forcedState = BlockStateCache.getHandle(block.getBlockData());
 
-                        String value = fullState.substring((forceState + "=").length(), localStateEnd - 1);
-                        //if the value is already set to the forced value, do nothing
-                        if (!value.equalsIgnoreCase(forceValue)) {
-                            //if the original value is different from the forced value, remove the original value and add the new one to the end of the string
-                            modified++;
-                            int stateStart = forcedBlockDataStringBuilder.indexOf(fullState);
-                            forcedBlockDataStringBuilder.delete(stateStart, stateStart + fullState.length());
-
-                            if (forcedBlockDataStringBuilder.substring(forcedBlockDataStringBuilder.length() - 1).equals("]")) {
-                                forcedBlockDataStringBuilder.setCharAt(forcedBlockDataStringBuilder.length() - 1, ',');
-                            }
-                            forcedBlockDataStringBuilder.append(forceState).append("=").append(forceValue).append(",");
-                        }
-                    } else {
-                        //if the original string doesn't contain the forced state, remove the ending bracket and then add the state to the end of the string
+            int modified = 0;
+            try {
+                for (Map.Entry<String, String> forced : definition.getForcedStates(secondBlock).entrySet()) {
+                    //if the value is already set to the forced value, do nothing
+                    if (!forced.getValue().equalsIgnoreCase(BlockStateProperties.get(forcedState, forced.getKey()))) {
+                        forcedState = BlockStateProperties.set(forcedState, forced.getKey(), forced.getValue());
                         modified++;
-                        if (forcedBlockDataStringBuilder.substring(forcedBlockDataStringBuilder.length() - 1).equals("]")) {
-                            forcedBlockDataStringBuilder.setCharAt(forcedBlockDataStringBuilder.length() - 1, ',');
-                        }
-
-                        forcedBlockDataStringBuilder.append(forceState).append("=").append(forceValue).append(",");
-                    }
-
-                    if (forcedBlockDataStringBuilder.substring(forcedBlockDataStringBuilder.length() - 1).equals(",")) {
-                        forcedBlockDataStringBuilder.setCharAt(forcedBlockDataStringBuilder.length() - 1, ']');
                     }
                 }
+            } catch (IllegalArgumentException e) {
+                console.severe(ChatColor.RED + "An error occurred while creating the BlockData for the \"" + path + "\" of the custom block \"" + id + "\"! Make sure the state names and values are valid");
+                return null;
+            }
 
-                if (modified > 0) {
-                    try {
-                        BlockData forcedBlockData = Bukkit.createBlockData(forcedBlockDataStringBuilder.toString());
-                        block.setBlockData(forcedBlockData);
-                        if (debug >= 4) {
-                            console.info(ChatColor.BLUE + "Successfully modified " + modified + " states from \"" + path + "\" to the custom block \"" + id + "\"");
-                        }
-                        return forcedBlockData;
-                    } catch (IllegalArgumentException e) {
-                        console.severe(ChatColor.RED + "An error occurred while creating the BlockData for the \"" + path + "\" of the custom block \"" + id + "\"! Make sure the state names and values are valid");
-                    }
+            if (modified > 0) {
+                BlockData forcedBlockData = BlockStateCache.toBlockData(forcedState);
+                block.setBlockData(forcedBlockData);
+                if (debug >= 4) {
+                    console.info(ChatColor.BLUE + "Successfully modified " + modified + " states from \"" + path + "\" to the custom block \"" + id + "\"");
                 }
+                return forcedBlockData;
             }
         }
 
         return null;
     }
 
+    public LoggedBlock getLoggedBlock(Location loc) {
+        return database.getBlock(loc);
+    }
+
     public Object getLoggedObjectFromLocation(Location loc, String path) {
         return getLoggedObjectFromLocation(loc, path, null);
     }
 
-    //gets a logged string from a location
+    //gets a logged value ("id", "secondBlock", or "disguised-block") from a location using the resident chunk index
     public Object getLoggedObjectFromLocation(Location loc, String path, Object def) {
-        World world = loc.getWorld();
-        int x = loc.getBlockX();
-        int y = loc.getBlockY();
-        int z = loc.getBlockZ();
-        int chunkX = x >> 4;
-        int chunkZ = z >> 4;
-        int subChunkY = y >> 4;
-
-        File file = new File(main.getDataFolder() + File.separator + "BlockDatabase" + File.separator + world.getName(), "chunk." + chunkX + "." + chunkZ + ".yml");
-        YamlConfiguration yaml = main.loadYamlFromFile(file, false, false, debug, "");
-
-        String basePath = "subChunk" + subChunkY + "." + x + "_" + y + "_" + z;
-        //String locString = world.getName() + ", " + x + ", " + y + ", " + z;
-        if (yaml != null) {
-            if (def != null) {
-                return yaml.get(basePath + "." + path, def);
-            } else {
-                return yaml.get(basePath + "." + path);
-            }
+        LoggedBlock block = database.getBlock(loc);
+        if (block != null) {
+            Object value = block.get(path);
+            return value != null ? value : def;
         }
         return null;
     }
 
-    //sets a value in a log file from a location
+    //sets a value for a logged block at a location and marks the chunk to be saved
     public void setLoggedInfoAtLocation(Location loc, String path, Object value) {
-        World world = loc.getWorld();
         int x = loc.getBlockX();
         int y = loc.getBlockY();
         int z = loc.getBlockZ();
-        int chunkX = x >> 4;
-        int chunkZ = z >> 4;
-        int subChunkY = y >> 4;
-        String chunkString = world.getName() + ", " + chunkX + ", " + chunkZ;
 
-        File file = new File(main.getDataFolder() + File.separator + "BlockDatabase" + File.separator + world.getName(), "chunk." + chunkX + "." + chunkZ + ".yml");
-        YamlConfiguration yaml = main.loadYamlFromFile(file, false, false, debug, "");
-        yaml.set("subChunk" + subChunkY + "." + x + "_" + y + "_" + z + "." + path, value);
-        try {
-            yaml.save(file);
-        } catch (IOException e) {
-            console.severe(ChatColor.RED + "Could not save the file for the chunk at " + chunkString);
+        LoggedChunk loggedChunk = database.getChunk(loc);
+        LoggedBlock block = loggedChunk.get(x, y, z);
+        if (block != null) {
+            loggedChunk.put(x, y, z, block.with(path, value));
+            database.markDirty(loggedChunk);
         }
     }
 
@@ -670,19 +526,100 @@ public class CustomBlockHelper {
         return null;
     }
 
-    //if a location is logged in a file, it will be removed from the file
-    public void unlogBlock(Location loc, Player player) {
-        File file = new File(main.getDataFolder() + File.separator + "BlockDatabase" + File.separator + loc.getWorld().getName(), "chunk." + loc.getChunk().getX() + "." + loc.getChunk().getZ() + ".yml");
+    //whether the logged "disguised-block" values in a chunk can be sent as they are, which is false if loadLoggedBlocksInChunk() would recalculate them
+    public boolean hasCurrentDisguises(String worldName, LoggedChunkSnapshot snapshot) {
+        return !recalculateChunkDisguisesBlacklist.contains(worldName) && snapshot.allMatch(this::hasCurrentDisguise);
+    }
+
+    //whether a logged "disguised-block" was calculated from the current version of its custom block's definition
+    //blocks whose definition was removed are always current, since there is nothing to recalculate them from
+    public boolean hasCurrentDisguise(LoggedBlock loggedBlock) {
+        CustomBlockDefinition definition = registry.getDefinition(loggedBlock);
+        return definition == null || loggedBlock.getDefinitionHash() == definition.getDisguiseHash();
+    }
+
+    //the disguise hash of a logged block's current definition, or 0 if the definition does not exist anymore
+    private int getDisguiseHash(LoggedBlock loggedBlock) {
+        CustomBlockDefinition definition = registry.getDefinition(loggedBlock);
+        return definition == null ? 0 : definition.getDisguiseHash();
+    }
+
+    //queues the logged "disguised-block" at a position to be recalculated on the main thread, which can be called from packet threads
+    //requests for the same position are combined until the next tick, when every queued position is recalculated by one repeating task
+    public void recalculateDisguiseLater(World world, int x, int y, int z) {
+        long key = (long) (x & 0x3FFFFFF) << 38 | (long) (z & 0x3FFFFFF) << 12 | (y & 0xFFF);
+        pendingDisguiseRecalculations.computeIfAbsent(world.getName(), k -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    //recalculates every position queued by recalculateDisguiseLater(), which runs every tick
+    private void recalculatePendingDisguises() {
+        for (Map.Entry<String, Set<Long>> entry : pendingDisguiseRecalculations.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
 
-        String chunkString = loc.getWorld().getName() + ", " + loc.getChunk().getX() + ", " + loc.getChunk().getZ();
+            World world = Bukkit.getWorld(entry.getKey());
+            for (Iterator<Long> it = entry.getValue().iterator(); it.hasNext(); ) {
+                long key = it.next();
+                it.remove();
+                if (world != null) {
+                    recalculateDisguise(world, (int) (key >> 38), (int) (key << 52 >> 52), (int) (key << 26 >> 38));
+                }
+            }
+        }
+    }
+
+    //recalculates and logs the disguised BlockData for a logged block (or un-logs it if the block is air), and re-sends it to nearby players if it changed
+    private void recalculateDisguise(World world, int x, int y, int z) {
+        if (!world.isChunkLoaded(x >> 4, z >> 4)) {
+            return;
+        }
+
+        Location loc = new Location(world, x, y, z);
+        LoggedBlock loggedBlock = getLoggedBlock(loc);
+        if (loggedBlock == null) {
+            return;
+        }
+
+        BlockData disguisedData = unLogBlockOrCreateDisguisedBlockData(loc, loggedBlock.getId(), loggedBlock.isSecondBlock());
+        if (disguisedData == null || disguisedData.getMaterial() == Material.AIR) {
+            return;
+        }
+
+        String disguisedBlockString = disguisedData.getAsString();
+        LoggedBlock recalculated = loggedBlock.withDisguise(disguisedBlockString, getDisguiseHash(loggedBlock));
+        if (!recalculated.equals(loggedBlock)) {
+            LoggedChunk loggedChunk = database.getChunk(loc);
+            loggedChunk.put(x, y, z, recalculated);
+            database.markDirty(loggedChunk);
+        }
+
+        if (!disguisedBlockString.equals(loggedBlock.getDisguisedBlock())) {
+
+            int viewDistance = Bukkit.getViewDistance();
+            for (Player player : world.getPlayers()) {
+                Location playerLoc = player.getLocation();
+                if (Math.abs((playerLoc.getBlockX() >> 4) - (x >> 4)) <= viewDistance && Math.abs((playerLoc.getBlockZ() >> 4) - (z >> 4)) <= viewDistance) {
+                    player.sendBlockChange(loc, disguisedData);
+                }
+            }
+
+            if (debug >= 4) {
+                console.info(ChatColor.BLUE + "Recalculated the logged \"disguised-block\" for the custom block \"" + loggedBlock.getId() + "\" at " + world.getName() + ", " + x + ", " + y + ", " + z + " after it was sent in a BlockChange packet");
+            }
+        }
+    }
+
+    //if a location is logged in the database, it will be removed from its chunk
+    public void unlogBlock(Location loc, Player player) {
         String locString = loc.getWorld().getName() + ", " + loc.getBlockX() + ", " + loc.getBlockY() + ", " + loc.getBlockZ();
-        if (file.exists()) {
-            YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
-            String path = "subChunk" + (loc.getBlockY() >> 4) + "." + loc.getBlockX() + "_" + loc.getBlockY() + "_" + loc.getBlockZ();
-            String id = yaml.getString(path + ".id");
+        LoggedChunk loggedChunk = database.getChunk(loc);
+
+        if (!loggedChunk.isEmpty()) {
+            LoggedBlock removed = loggedChunk.remove(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
 
-            if (yaml.contains(path)) {
-                yaml.set(path, null);
+            if (removed != null) {
+                String id = removed.getId();
                 if (debug >= 2) {
                     if (player != null) {
                         console.info(ChatColor.AQUA + player.getName() + " un-logged the custom block \"" + id + "\" at " + locString);
@@ -691,221 +628,161 @@ public class CustomBlockHelper {
                     }
                 }
 
-                try {
-                    yaml.save(file);
-                    if (debug >= 2) {
-                        console.info(ChatColor.DARK_AQUA + "Saved the file for the chunk at " + chunkString);
-                    }
-                } catch (IOException e) {
-                    console.severe(ChatColor.RED + "Could not save the file for the chunk at " + chunkString);
+                database.markDirty(loggedChunk);
+
+                //the disguise that was sent for this position must not make a later disguise at the same position look like it was already sent
+                SentDisguiseTracker tracker = customBlockEvents.getSentDisguises();
+                for (Player viewer : loc.getWorld().getPlayers()) {
+                    tracker.forget(viewer, loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
                 }
             } else if (debug >= 2) {
-                console.severe(ChatColor.RED + "Did not un-log the block at " + locString + " because it does not exist in the file " + file.getPath());
+                console.severe(ChatColor.RED + "Did not un-log the block at " + locString + " because it does not exist in its chunk's database");
             }
         } else if (debug >= 2) {
-            console.info(ChatColor.BLUE + "Did not un-log the block at " + locString + " because its chunk file does not exist");
+            console.info(ChatColor.BLUE + "Did not un-log the block at " + locString + " because its chunk has no logged blocks");
         }
     }
 
     //drops items and/or xp specified in the block.drops section of a custom block definition
     public void spawnCustomBlockDrops(String id, Location loc, List<Item> originalDrops, Player player) {
         List<ItemStack> newDrops = new ArrayList<>();
-        String path = idToDefinitionFilePath.get(id);
-        YamlConfiguration yaml = idToDefinitionFile.get(id);
-        if (yaml == null) {
-            console.severe(ChatColor.RED + "The drops for the custom block \"" + id + "\" could not be loaded because the source file " + path + " does not exist");
+        CustomBlockDefinition definition = registry.getDefinition(id);
+        if (definition == null) {
+            console.severe(ChatColor.RED + "The drops for the custom block \"" + id + "\" could not be loaded because its definition does not exist");
             return;
         }
 
-        if (yaml.isConfigurationSection(id)) {
-            ConfigurationSection idSection = yaml.getConfigurationSection(id);
-            if (idSection.isConfigurationSection("block.drops")) {
-                ConfigurationSection parentDropsSection = idSection.getConfigurationSection("block.drops");
-
-                if (parentDropsSection.getBoolean("enabled", true)) {
-                    Set<String> drops = parentDropsSection.getKeys(false);
-                    double xpToDrop = 0;
-
-                    //main drop sections, direct children of "block.drops"
-                    drop:
-                    for (String drop : drops) {
-                        if (parentDropsSection.isConfigurationSection(drop)) {
-                            ConfigurationSection dropSection = parentDropsSection.getConfigurationSection(drop);
-
-                            if (dropSection.contains("conditions")) {
-                                if (player != null) {
-                                    for (String condition : dropSection.getStringList("conditions")) {
-                                        Enchantment enchantment = Enchantment.getByKey(NamespacedKey.minecraft(condition));
-                                        if (enchantment == null) {
-                                            console.severe(ChatColor.RED + "The enchantment \"" + condition + "\" is not a valid enchantment");
-                                            continue drop;
-                                        } else if (!player.getInventory().getItemInMainHand().containsEnchantment(Enchantment.getByKey(NamespacedKey.minecraft(condition)))) {
-                                            continue drop;
-                                        }
-                                    }
-                                } else {
-                                    continue;
+        if (definition.hasDropsSection()) {
+            if (definition.areDropsEnabled()) {
+                double xpToDrop = 0;
+
+                //main drop sections, direct children of "block.drops"
+                drop:
+                for (CustomBlockDrop drop : definition.getDrops()) {
+                    if (drop.getConditions() != null) {
+                        if (player != null) {
+                            for (int i = 0; i < drop.getConditions().size(); i++) {
+                                Enchantment enchantment = drop.getConditions().get(i);
+                                if (enchantment == null) {
+                                    console.severe(ChatColor.RED + "The enchantment \"" + drop.getConditionKeys().get(i) + "\" is not a valid enchantment");
+                                    continue drop;
+                                } else if (!player.getInventory().getItemInMainHand().containsEnchantment(enchantment)) {
+                                    continue drop;
                                 }
                             }
+                        } else {
+                            continue;
+                        }
+                    }
 
-                            if (dropSection.contains("chance")) {
-                                double chance = dropSection.getDouble("chance");
-                                if (chance > 0 && chance < 1) {
-                                    if (Math.random() >= chance) {
-                                        continue;
-                                    }
-                                } else {
-                                    console.severe(ChatColor.RED + "The \"chance\" tag in the drop section \"" + drop + "\" for the custom block \"" + id + "\" must be greater than 0 and less than 1");
-                                }
-                            }
-
-                            if (dropSection.contains("set-xp")) {
-                                xpToDrop = dropSection.getDouble("set-xp");
-                            }
-                            if (dropSection.contains("add-xp")) {
-                                xpToDrop += dropSection.getDouble("add-xp");
-                            }
-                            if (dropSection.contains("multiply-xp")) {
-                                xpToDrop *= dropSection.getDouble("multiply-xp");
-                            }
-
-                            Set<String> keys = dropSection.getKeys(false);
-                            //children of a main drop section, includes keys like "chance", "conditions", and items
-                            for (String key : keys) {
-                                Material material = Material.matchMaterial(key);
-                                ItemStack item;
-                                if (idToDefinitionFile.containsKey(key)) {
-                                    //custom item
-                                    item = getItemFromID(key);
-                                } else if (material != null) {
-                                    //vanilla material
-                                    item = new ItemStack(material);
-                                } else {
-                                    if (!key.equalsIgnoreCase("chance") && !key.equalsIgnoreCase("conditions") && !key.equalsIgnoreCase("set-xp") && !key.equalsIgnoreCase("add-xp") && !key.equalsIgnoreCase("multiply-xp")) {
-                                        if (debug >= 3) {
-                                            console.warning(ChatColor.YELLOW + "The item \"" + key + "\" in the drop section \"" + drop + "\" of the custom block \"" + id + "\" is not a valid custom item id or vanilla item type");
-                                        }
-                                    }
-                                    continue;
-                                }
-
-                                if (dropSection.isConfigurationSection(key)) {
-                                    //configuration section format: material or custom item id as key, count and nbt as children
-                                    ConfigurationSection itemSection = dropSection.getConfigurationSection(key);
-                                    if (itemSection.contains("nbt")) {
-                                        NBTItem nbtItem = new NBTItem(item);
-                                        String nbtString = itemSection.getString("nbt");
-                                        NBTCompound nbtMerge;
-
-                                        if (nbtString.contains("id:") && nbtString.contains("Count:")) {
-                                            //"nbt" is a full nbt item string
-                                            nbtMerge = new NBTItem(NBTItem.convertNBTtoItem(new NBTContainer(nbtString)));
-                                        } else {
-                                            //"nbt" is just keys and not a full item
-                                            nbtMerge = new NBTContainer(nbtString);
-                                        }
-
-                                        nbtItem.mergeCompound(nbtMerge);
-                                        item = nbtItem.getItem();
-                                    }
-
-                                    if (itemSection.contains("count")) {
-                                        Object value = itemSection.get("count");
-                                        int count = 1;
-
-                                        if (value instanceof Number) {
-                                            count = ((Number) value).intValue();
-                                        } else if (value instanceof String && ((String) value).contains("-") && ((String) value).length() >= 3) {
-                                            String[] range = ((String) value).split("-");
-                                            int min = Integer.parseInt(range[0]);
-                                            int max = Integer.parseInt(range[1]);
-                                            count = (int) (Math.random() * (max - min + 1) + min);
-                                        }
-                                        item.setAmount(count);
-                                    }
-
-                                } else {
-                                    //vanilla item without NBT:   [material]: [count]
-                                    Object value = dropSection.get(key);
-                                    int count = 1;
-
-                                    if (value instanceof Integer) {
-                                        count = (Integer) value;
-                                    } else if (value instanceof String && ((String) value).contains("-") && ((String) value).length() >= 3) {
-                                        String[] range = ((String) value).split("-");
-                                        int min = Integer.parseInt(range[0]);
-                                        int max = Integer.parseInt(range[1]);
-                                        count = (int) (Math.random() * (max - min + 1) + min);
-                                    }
-
-                                    item.setAmount(count);
-                                }
-                                newDrops.add(item);
+                    if (drop.getChance() != null) {
+                        double chance = drop.getChance();
+                        if (chance > 0 && chance < 1) {
+                            if (Math.random() >= chance) {
+                                continue;
                             }
+                        } else {
+                            console.severe(ChatColor.RED + "The \"chance\" tag in the drop section \"" + drop.getName() + "\" for the custom block \"" + id + "\" must be greater than 0 and less than 1");
                         }
                     }
 
-                    if (originalDrops != null) {
-                        originalDrops.clear();
+                    if (drop.getSetXp() != null) {
+                        xpToDrop = drop.getSetXp();
                     }
-
-                    int xpToDropInt = (int) xpToDrop;
-                    if (xpToDropInt > 0) {
-                        ((ExperienceOrb) loc.getWorld().spawnEntity(loc, EntityType.EXPERIENCE_ORB)).setExperience(xpToDropInt);
+                    if (drop.getAddXp() != null) {
+                        xpToDrop += drop.getAddXp();
+                    }
+                    if (drop.getMultiplyXp() != null) {
+                        xpToDrop *= drop.getMultiplyXp();
                     }
-                    newDrops.forEach(item -> loc.getWorld().dropItemNaturally(loc, item));
 
-                    String successMsg = "The custom block \"" + id + "\" successfully dropped ";
-                    if (debug >= 3) {
-                        if (newDrops.isEmpty()) {
-                            successMsg += "no items";
+                    //items of a main drop section, which are checked against the current definitions because a custom item id can be added or removed by a reload
+                    for (CustomBlockDrop.Item dropItem : drop.getItems()) {
+                        String key = dropItem.getKey();
+                        ItemStack item;
+                        if (registry.getDefinition(key) != null) {
+                            //custom item
+                            item = getItemFromID(key);
+                        } else if (dropItem.getMaterial() != null) {
+                            //vanilla material
+                            item = new ItemStack(dropItem.getMaterial());
                         } else {
-                            successMsg += "the items " + newDrops.toString().replace("[", "").replace("]", "");
+                            if (debug >= 3) {
+                                console.warning(ChatColor.YELLOW + "The item \"" + key + "\" in the drop section \"" + drop.getName() + "\" of the custom block \"" + id + "\" is not a valid custom item id or vanilla item type");
+                            }
+                            continue;
                         }
 
-                        successMsg += " and " + xpToDropInt + " xp";
+                        if (dropItem.getNbt() != null) {
+                            NBTItem nbtItem = new NBTItem(item);
+                            String nbtString = dropItem.getNbt();
+                            NBTCompound nbtMerge;
+
+                            if (nbtString.contains("id:") && nbtString.contains("Count:")) {
+                                //"nbt" is a full nbt item string
+                                nbtMerge = new NBTItem(NBTItem.convertNBTtoItem(new NBTContainer(nbtString)));
+                            } else {
+                                //"nbt" is just keys and not a full item
+                                nbtMerge = new NBTContainer(nbtString);
+                            }
+
+                            nbtItem.mergeCompound(nbtMerge);
+                            item = nbtItem.getItem();
+                        }
 
-                        console.info(ChatColor.LIGHT_PURPLE + successMsg);
+                        if (dropItem.setsAmount()) {
+                            item.setAmount(dropItem.rollCount());
+                        }
+                        newDrops.add(item);
                     }
-                } else {
-                    if (debug >= 3) {
-                        console.warning(ChatColor.YELLOW + "The drops for the custom block \"" + id + "\" were not changed because the \"enabled\" option in its drops section is set to false");
+                }
+
+                if (originalDrops != null) {
+                    originalDrops.clear();
+                }
+
+                int xpToDropInt = (int) xpToDrop;
+                if (xpToDropInt > 0) {
+                    ((ExperienceOrb) loc.getWorld().spawnEntity(loc, EntityType.EXPERIENCE_ORB)).setExperience(xpToDropInt);
+                }
+                newDrops.forEach(item -> loc.getWorld().dropItemNaturally(loc, item));
+
+                String successMsg = "The custom block \"" + id + "\" successfully dropped ";
+                if (debug >= 3) {
+                    if (newDrops.isEmpty()) {
+                        successMsg += "no items";
+                    } else {
+                        successMsg += "the items " + newDrops.toString().replace("[", "").replace("]", "");
                     }
+
+                    successMsg += " and " + xpToDropInt + " xp";
+
+                    console.info(ChatColor.LIGHT_PURPLE + successMsg);
                 }
             } else {
                 if (debug >= 3) {
-                    console.warning(ChatColor.YELLOW + "The drops for the custom block \"" + id + "\" could not be loaded because its drop section does not exist");
+                    console.warning(ChatColor.YELLOW + "The drops for the custom block \"" + id + "\" were not changed because the \"enabled\" option in its drops section is set to false");
                 }
             }
         } else {
-            console.severe(ChatColor.RED + "The drops for the custom block \"" + id + "\" could not be loaded because its definition does not exist in the file " + path);
+            if (debug >= 3) {
+                console.warning(ChatColor.YELLOW + "The drops for the custom block \"" + id + "\" could not be loaded because its drop section does not exist");
+            }
         }
     }
 
     //moves the logged location of a logged block (mainly for piston events)
     public void moveLoggedBlock(Location loc, Location newLoc) {
-        World world = loc.getWorld();
-        int x = loc.getBlockX();
-        int y = loc.getBlockY();
-        int z = loc.getBlockZ();
-        int chunkX = x >> 4;
-        int chunkZ = z >> 4;
-        int subChunkY = y >> 4;
-
-        File file = new File(main.getDataFolder() + File.separator + "BlockDatabase" + File.separator + world.getName(), "chunk." + chunkX + "." + chunkZ + ".yml");
-        YamlConfiguration yaml = main.loadYamlFromFile(file, false, false, debug, "");
+        LoggedChunk loggedChunk = database.getChunk(loc);
+        LoggedBlock block = loggedChunk.remove(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
 
-        String logPath = "subChunk" + subChunkY + "." + x + "_" + y + "_" + z;
-        if (yaml != null && yaml.isConfigurationSection(logPath)) {
-            Map<String, Object> values = yaml.getConfigurationSection(logPath).getValues(true);
-            yaml.set(logPath, null);
+        if (block != null) {
+            LoggedChunk newLoggedChunk = database.getChunk(newLoc);
+            newLoggedChunk.put(newLoc.getBlockX(), newLoc.getBlockY(), newLoc.getBlockZ(), block);
 
-            String newLogPath = "subChunk" + subChunkY + "." + newLoc.getBlockX() + "_" + newLoc.getBlockY() + "_" + newLoc.getBlockZ();
-            yaml.createSection(newLogPath, values);
-            try {
-                yaml.save(file);
-            } catch (IOException e) {
-                console.severe(ChatColor.RED + "Could not save the file " + file.getPath() + " while trying to move the logged custom block at " + logPath);
+            database.markDirty(loggedChunk);
+            if (newLoggedChunk != loggedChunk) {
+                database.markDirty(newLoggedChunk);
             }
         }
     }
@@ -915,16 +792,17 @@ public class CustomBlockHelper {
         Map<Location, Location> moves = new HashMap<>();
         if (!blocks.isEmpty()) {
             for (Block block : blocks) {
-                String id = (String) getLoggedObjectFromLocation(block.getLocation(), "id");
-                if (id != null) {
-                    YamlConfiguration yaml = idToDefinitionFile.get(id);
+                LoggedBlock loggedBlock = getLoggedBlock(block.getLocation());
+                if (loggedBlock != null) {
+                    String id = loggedBlock.getId();
+                    CustomBlockDefinition definition = registry.getDefinition(loggedBlock);
                     Location loc = block.getLocation();
                     Location newLoc = block.getRelative(blockFace).getLocation();
                     String locString = loc.getWorld().getName() + ", " + loc.getBlockX() + ", " + loc.getBlockY() + ", " + loc.getBlockZ();
                     String newLocString = newLoc.getWorld().getName() + ", " + newLoc.getBlockX() + ", " + newLoc.getBlockY() + ", " + newLoc.getBlockZ();
 
-                    if (yaml != null) {
-                        if (!yaml.getBoolean(id + ".block.options.unbreakable", false)) {
+                    if (definition != null) {
+                        if (!definition.isUnbreakable()) {
                             //if the block is not unbreakable
                             if (block.getPistonMoveReaction() == PistonMoveReaction.BREAK) {
                                 destroyLoggedBlock(null, false, loc, true, null, null, false);
@@ -932,7 +810,7 @@ public class CustomBlockHelper {
                                     console.info(ChatColor.LIGHT_PURPLE + "Destroyed the custom block \"" + id + "\" because the server-side block is breakable by pistons");
                                 }
                             }
-                            if (yaml.getBoolean(id + ".block.options.piston-breakable") && newLoc.getBlock().getType().isEmpty()) {
+                            if (definition.isPistonBreakable() && newLoc.getBlock().getType().isEmpty()) {
                                 //if the block (normally not broken) can be broken by pistons
                                 destroyLoggedBlock(null, false, loc, true, null, null, false);
                                 if (debug >= 3) {
@@ -946,7 +824,7 @@ public class CustomBlockHelper {
                         }
 
                         if (pushing) {
-                            if (!yaml.getBoolean(id + ".block.options.cancel-piston-push")) {
+                            if (!definition.cancelsPistonPush()) {
                                 moves.put(loc, newLoc);
                                 if (debug >= 3) {
                                     console.info(ChatColor.LIGHT_PURPLE + "Pushed the custom block \"" + id + "\" from " + locString + " to " + newLocString);
@@ -955,7 +833,7 @@ public class CustomBlockHelper {
                                 return true;
                             }
                         } else {
-                            if (!yaml.getBoolean(id + ".block.options.cancel-piston-pull")) {
+                            if (!definition.cancelsPistonPull()) {
                                 moves.put(loc, newLoc);
                                 if (debug >= 3) {
                                     console.info(ChatColor.LIGHT_PURPLE + "Pulled the custom block \"" + id + "\" from " + locString + " to " + newLocString);
@@ -976,9 +854,9 @@ public class CustomBlockHelper {
 
     //gets the ItemStack specified in the "item" tag of a block definition from an id, throws a NullPointerException if the tag doesn't exist
     public ItemStack getItemFromID(String id) {
-        if (id != null && idToDefinitionFile.containsKey(id)) {
-            YamlConfiguration yaml = idToDefinitionFile.get(id);
-            String itemString = yaml.getString(id + ".item");
+        CustomBlockDefinition definition = registry.getDefinition(id);
+        if (definition != null) {
+            String itemString = definition.getItem();
 
             if (itemString != null) {
                 NBTItem nbtItem = new NBTItem(NBTItem.convertNBTtoItem(new NBTContainer(itemString)));
@@ -1003,89 +881,15 @@ public class CustomBlockHelper {
         return null;
     }
 
-    //uses the coords of a new and old chunk (usually from a movement event) to determine the direction a player moved between chunks
-    /*public void chunkDirectionCheck(World world, Chunk newChunk, Chunk oldChunk, Player player) {
-        int chunkCount = 0;
-        int blockCount = 0;
-        int chunkDiffX = newChunk.getX() - oldChunk.getX();
-        int chunkDiffZ = newChunk.getZ() - oldChunk.getZ();
-
-        if (chunkDiffX == 0 && chunkDiffZ < 0) {
-            //facing north: -z
-            for (int x = -4; x <= 4; x++) {
-                Chunk chunk = world.getChunkAt(newChunk.getX() + x, newChunk.getZ() - 4);
-                blockCount += LoadCustomBlocksFromChunkFile(player, newChunk, chunk);
-                chunkCount++;
-            }
-        } else if (chunkDiffX > 0 && chunkDiffZ == 0) {
-            //facing east: +x
-            for (int z = -4; z <= 4; z++) {
-                Chunk chunk = world.getChunkAt(newChunk.getX() + 4, newChunk.getZ() + z);
-                blockCount += LoadCustomBlocksFromChunkFile(player, newChunk, chunk);
-                chunkCount++;
-            }
-        } else if (chunkDiffX == 0 && chunkDiffZ > 0) {
-            //facing south: +z
-            for (int x = -4; x <= 4; x++) {
-                Chunk chunk = world.getChunkAt(newChunk.getX() + x, newChunk.getZ() + 4);
-                blockCount += LoadCustomBlocksFromChunkFile(player, newChunk, chunk);
-                chunkCount++;
-            }
-        } else if (chunkDiffX < 0 && chunkDiffZ == 0) {
-            //facing west: -x
-            for (int z = -4; z <= 4; z++) {
-                Chunk chunk = world.getChunkAt(newChunk.getX() - 4, newChunk.getZ() + z);
-                blockCount += LoadCustomBlocksFromChunkFile(player, newChunk, chunk);
-                chunkCount++;
-            }
-        } else if (chunkDiffX > 0 && chunkDiffZ < 0) {
-            //facing northeast: +x, -z
-            for (int x = -4; x <= 4; x++) {
-                for (int z = -4; z <= 4; z++) {
-                    if (x == 4 || z == -4) {
-                        Chunk chunk = world.getChunkAt(newChunk.getX() + x, newChunk.getZ() + z);
-                        blockCount += LoadCustomBlocksFromChunkFile(player, newChunk, chunk);
-                        chunkCount++;
-                    }
-                }
-            }
-        } else if (chunkDiffX > 0) {
-            //facing southeast: +x, +z
-            for (int x = -4; x <= 4; x++) {
-                for (int z = -4; z <= 4; z++) {
-                    if (x == 4 || z == 4) {
-                        Chunk chunk = world.getChunkAt(newChunk.getX() + x, newChunk.getZ() + z);
-                        blockCount += LoadCustomBlocksFromChunkFile(player, newChunk, chunk);
-                        chunkCount++;
-                    }
-                }
-            }
-        } else if (chunkDiffX < 0 && chunkDiffZ > 0) {
-            //facing southwest: -x, +z
-            for (int x = -4; x <= 4; x++) {
-                for (int z = -4; z <= 4; z++) {
-                    if (x == -4 || z == 4) {
-                        Chunk chunk = world.getChunkAt(newChunk.getX() + x, newChunk.getZ() + z);
-                        blockCount += LoadCustomBlocksFromChunkFile(player, newChunk, chunk);
-                        chunkCount++;
-                    }
-                }
-            }
-        } else {
-            //facing northwest: -x, -z
-            for (int x = -4; x <= 4; x++) {
-                for (int z = -4; z <= 4; z++) {
-                    if (x == -4 || z == -4) {
-                        Chunk chunk = world.getChunkAt(newChunk.getX() + x, newChunk.getZ() + z);
-                        blockCount += LoadCustomBlocksFromChunkFile(player, newChunk, chunk);
-                        chunkCount++;
-                    }
-                }
-            }
-        }
+    public CustomBlockDatabase getDatabase() {
+        return database;
+    }
 
-        if (debug) {
-            console.info(ChatColor.AQUA + String.valueOf(chunkCount) + " total chunks checked and " + blockCount + " blocks loaded by " + player.getName());
-        }
-    }*/
+    public ChunkDisguiseCache getDisguiseCache() {
+        return disguiseCache;
+    }
+
+    public DisguiseTransformCache getTransformCache() {
+        return transformCache;
+    }
 }
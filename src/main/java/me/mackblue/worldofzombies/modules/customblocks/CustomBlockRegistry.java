@@ -0,0 +1,93 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+//maps every custom block id to a dense int and the current definition for that id
+//numeric ids are interned for the whole run and never reassigned, so logged blocks and caches keep valid ids across reloads,
+//but they are not stable between restarts and must not be written to disk
+public class CustomBlockRegistry {
+
+    private static final Map<String, Integer> numericIds = new ConcurrentHashMap<>();
+    private static volatile String[] ids = new String[0];
+
+    //replaced as a whole on reload and read by packet threads without locking
+    private volatile CustomBlockDefinition[] definitions;
+    private final Map<String, CustomBlockDefinition> definitionsById;
+
+    public CustomBlockRegistry() {
+        this.definitions = new CustomBlockDefinition[0];
+        this.definitionsById = new HashMap<>();
+    }
+
+    //gets the numeric id for a string id, assigning the next free one if the id has not been seen yet (including ids without a definition)
+    public static int intern(String id) {
+        if (id == null) {
+            return -1;
+        }
+
+        Integer numericId = numericIds.get(id);
+        if (numericId != null) {
+            return numericId;
+        }
+
+        synchronized (CustomBlockRegistry.class) {
+            numericId = numericIds.get(id);
+            if (numericId == null) {
+                String[] newIds = Arrays.copyOf(ids, ids.length + 1);
+                numericId = ids.length;
+                newIds[numericId] = id;
+                ids = newIds;
+                numericIds.put(id, numericId);
+            }
+            return numericId;
+        }
+    }
+
+    //gets the string id for a numeric id, or null if it was never assigned
+    public static String getId(int numericId) {
+        String[] current = ids;
+        return numericId >= 0 && numericId < current.length ? current[numericId] : null;
+    }
+
+    //returns the numeric id for a string id without assigning one, or -1 if it has not been seen
+    public static int getNumericId(String id) {
+        Integer numericId = id == null ? null : numericIds.get(id);
+        return numericId == null ? -1 : numericId;
+    }
+
+    //replaces all definitions, used when the definition files are reloaded
+    public synchronized void setDefinitions(Collection<CustomBlockDefinition> newDefinitions) {
+        CustomBlockDefinition[] array = new CustomBlockDefinition[ids.length];
+        Map<String, CustomBlockDefinition> byId = new HashMap<>();
+        for (CustomBlockDefinition definition : newDefinitions) {
+            if (definition.getNumericId() >= array.length) {
+                array = Arrays.copyOf(array, definition.getNumericId() + 1);
+            }
+            array[definition.getNumericId()] = definition;
+            byId.put(definition.getId(), definition);
+        }
+
+        definitions = array;
+        definitionsById.clear();
+        definitionsById.putAll(byId);
+    }
+
+    //gets the definition for a numeric id, or null if that id is not currently defined
+    public CustomBlockDefinition getDefinition(int numericId) {
+        CustomBlockDefinition[] current = definitions;
+        return numericId >= 0 && numericId < current.length ? current[numericId] : null;
+    }
+
+    public CustomBlockDefinition getDefinition(String id) {
+        return getDefinition(getNumericId(id));
+    }
+
+    public CustomBlockDefinition getDefinition(LoggedBlock block) {
+        return block == null ? null : getDefinition(block.getNumericId());
+    }
+
+    public synchronized Set<String> getDefinedIds() {
+        return new HashSet<>(definitionsById.keySet());
+    }
+}
@@ -0,0 +1,127 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import me.mackblue.worldofzombies.WorldOfZombies;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+//recalculates the logged disguises in every indexed chunk whose custom block definitions changed after a reload, a few chunks each tick,
+//so loaded chunks are updated (and re-sent to the players who can see them) without waiting for them to be loaded again
+//chunks that are not loaded when their turn comes are skipped, since loadLoggedBlocksInChunk() recalculates them when they are loaded
+public class DisguiseRecalculator {
+
+    private final WorldOfZombies main;
+    private final CustomBlockHelper helper;
+    private final CustomBlockDatabase database;
+    private final Logger console;
+
+    private int debug;
+    private int task;
+    private int chunkBudget;
+    private long timeBudget;
+
+    //indexed chunks that still have to be checked, which is only used on the main thread
+    private final Queue<LoggedChunk> queue;
+
+    //chunks and logged blocks that were changed by a recalculation
+    private final LongAdder recalculatedChunks = new LongAdder();
+    private final LongAdder recalculatedBlocks = new LongAdder();
+
+    public DisguiseRecalculator(WorldOfZombies main, CustomBlockHelper helper) {
+        this.main = main;
+        this.helper = helper;
+        this.database = helper.getDatabase();
+        this.console = main.getLogger();
+        this.queue = new ArrayDeque<>();
+    }
+
+    //queues every indexed chunk and starts (or restarts) the task with a maximum number of chunks and milliseconds that can be spent recalculating each tick
+    //this has to be called after the definitions are reloaded, since chunks are compared with the definitions when their turn comes
+    public void start(int chunkBudget, double timeBudgetMillis, int debug) {
+        this.chunkBudget = Math.max(chunkBudget, 1);
+        this.timeBudget = (long) (Math.max(timeBudgetMillis, 0.1) * 1000000);
+        this.debug = debug;
+
+        queue.clear();
+        for (World world : Bukkit.getWorlds()) {
+            queue.addAll(database.getIndexedChunks(world.getName()));
+        }
+
+        if (task != 0) {
+            Bukkit.getScheduler().cancelTask(task);
+            task = 0;
+        }
+        if (!queue.isEmpty()) {
+            task = Bukkit.getScheduler().scheduleSyncRepeatingTask(main, this::tick, 1, 1);
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    //checks queued chunks until the queue is empty or one of the budgets runs out, where only chunks that had to be recalculated count towards the chunk budget
+    private void tick() {
+        long start = System.nanoTime();
+        int chunks = 0;
+
+        while (!queue.isEmpty() && chunks < chunkBudget && System.nanoTime() - start < timeBudget) {
+            LoggedChunk loggedChunk = queue.poll();
+            String worldName = loggedChunk.getWorldName();
+            int chunkX = loggedChunk.getChunkX();
+            int chunkZ = loggedChunk.getChunkZ();
+
+            World world = Bukkit.getWorld(worldName);
+            if (world == null || !world.isChunkLoaded(chunkX, chunkZ) || database.getIndexedChunk(worldName, chunkX, chunkZ) != loggedChunk
+                    || loggedChunk.isEmpty() || loggedChunk.getSnapshot().allMatch(helper::hasCurrentDisguise)) {
+                continue;
+            }
+
+            chunks++;
+            int changed = helper.recalculateChunkDisguises(world, loggedChunk);
+            if (changed == 0) {
+                continue;
+            }
+            recalculatedChunks.increment();
+            recalculatedBlocks.add(changed);
+
+            //disguises that did not change are not sent again, since the client already has them
+            Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+            int viewDistance = Bukkit.getViewDistance();
+            for (Player player : world.getPlayers()) {
+                Location playerLoc = player.getLocation();
+                if (Math.abs((playerLoc.getBlockX() >> 4) - chunkX) <= viewDistance && Math.abs((playerLoc.getBlockZ() >> 4) - chunkZ) <= viewDistance) {
+                    helper.loadLoggedBlocksInChunk(player, chunk);
+                }
+            }
+
+            if (debug >= 3) {
+                console.info(ChatColor.DARK_AQUA + "Recalculated " + changed + " logged disguises in the chunk at " + worldName + ", " + chunkX + ", " + chunkZ + " because their custom block definitions changed");
+            }
+        }
+
+        if (queue.isEmpty()) {
+            Bukkit.getScheduler().cancelTask(task);
+            task = 0;
+            if (debug >= 2) {
+                console.info(ChatColor.DARK_AQUA + "Finished recalculating the logged disguises of custom blocks whose definitions changed in the loaded chunks");
+            }
+        }
+    }
+
+    public long getRecalculatedChunks() {
+        return recalculatedChunks.sum();
+    }
+
+    public long getRecalculatedBlocks() {
+        return recalculatedBlocks.sum();
+    }
+}
@@ -0,0 +1,216 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import me.mackblue.worldofzombies.WorldOfZombies;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+//chunks whose custom block disguises still have to be sent to each player, which a single repeating task sends every tick
+//each player's nearest chunks are sent first, and every tick stops after a number of packets or an amount of time, so a login or a teleport into a dense area is spread over several ticks
+//if "nearDistance" is set, chunks farther away than it are only sent a few at a time ("farRate" per player each tick) until the player comes close enough
+public class DisguiseSendQueue {
+
+    private final WorldOfZombies main;
+    private final CustomBlockHelper helper;
+    private final Logger console;
+
+    private int debug;
+    private int task;
+    private int packetBudget;
+    private long timeBudget;
+    private int nearDistance;
+    private int farRate;
+    private volatile long currentTick;
+
+    //player uuid -> chunks waiting to be sent to that player
+    private final Map<UUID, PlayerQueue> queues;
+
+    public DisguiseSendQueue(WorldOfZombies main, CustomBlockHelper helper) {
+        this.main = main;
+        this.helper = helper;
+        this.console = main.getLogger();
+        this.queues = new ConcurrentHashMap<>();
+    }
+
+    //starts (or restarts) the task with a maximum number of packets and milliseconds that can be spent sending disguises each tick
+    //"nearDistance" is the chunk distance within which chunks are sent right away (0 sends every chunk right away), and "farRate" is how many farther chunks are sent to each player per tick
+    public void start(int packetBudget, double timeBudgetMillis, int nearDistance, int farRate, int debug) {
+        this.packetBudget = Math.max(packetBudget, 1);
+        this.timeBudget = (long) (Math.max(timeBudgetMillis, 0.1) * 1000000);
+        this.nearDistance = Math.max(nearDistance, 0);
+        this.farRate = Math.max(farRate, 0);
+        this.debug = debug;
+
+        if (task != 0) {
+            Bukkit.getScheduler().cancelTask(task);
+        }
+        task = Bukkit.getScheduler().scheduleSyncRepeatingTask(main, this::tick, 1, 1);
+    }
+
+    //queues a chunk to be sent to a player once "delay" ticks have passed, which can be called from packet threads
+    public void add(Player player, int chunkX, int chunkZ, int delay) {
+        queues.computeIfAbsent(player.getUniqueId(), k -> new PlayerQueue(player)).add(player.getWorld().getName(), CustomBlockDatabase.getChunkKey(chunkX, chunkZ), currentTick + Math.max(delay, 0));
+    }
+
+    //returns whether a chunk is close enough to a player to be disguised right away
+    public boolean isNear(Player player, int chunkX, int chunkZ) {
+        if (nearDistance == 0) {
+            return true;
+        }
+        Location loc = player.getLocation();
+        return Math.max(Math.abs((loc.getBlockX() >> 4) - chunkX), Math.abs((loc.getBlockZ() >> 4) - chunkZ)) <= nearDistance;
+    }
+
+    //drops a queued chunk for a player, like when the client unloads it before its disguises were sent
+    public void remove(Player player, int chunkX, int chunkZ) {
+        PlayerQueue queue = queues.get(player.getUniqueId());
+        if (queue != null) {
+            queue.remove(CustomBlockDatabase.getChunkKey(chunkX, chunkZ));
+        }
+    }
+
+    //drops every queued chunk for a player
+    public void remove(Player player) {
+        queues.remove(player.getUniqueId());
+    }
+
+    public int size() {
+        int size = 0;
+        for (PlayerQueue queue : queues.values()) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    //players take turns sending their nearest ready chunk until nothing is ready or one of the budgets runs out
+    private void tick() {
+        long tick = ++currentTick;
+        long start = System.nanoTime();
+        int packets = 0;
+        int chunks = 0;
+
+        List<PlayerQueue> ready = new ArrayList<>();
+        for (Iterator<PlayerQueue> it = queues.values().iterator(); it.hasNext(); ) {
+            PlayerQueue queue = it.next();
+            if (!queue.player.isOnline()) {
+                it.remove();
+            } else if (queue.prepare(tick, nearDistance, farRate)) {
+                ready.add(queue);
+            }
+        }
+
+        while (!ready.isEmpty() && packets < packetBudget && System.nanoTime() - start < timeBudget) {
+            for (Iterator<PlayerQueue> it = ready.iterator(); it.hasNext() && packets < packetBudget; ) {
+                PlayerQueue queue = it.next();
+                Long key = queue.next(tick);
+                if (key == null) {
+                    it.remove();
+                    continue;
+                }
+
+                World world = queue.player.getWorld();
+                int chunkX = (int) (key >> 32);
+                int chunkZ = (int) (long) key;
+                if (world.isChunkLoaded(chunkX, chunkZ)) {
+                    packets += helper.loadLoggedBlocksInChunk(queue.player, world.getChunkAt(chunkX, chunkZ));
+                    chunks++;
+                }
+            }
+        }
+
+        if (debug >= 2 && chunks != 0) {
+            console.info(ChatColor.DARK_GREEN + "Sent the custom blocks in " + chunks + " chunks in " + packets + " packets in " + String.format("%.2f", (System.nanoTime() - start) / 1e6) + " ms, with " + size() + " chunks still queued");
+        }
+    }
+
+    private static class PlayerQueue {
+
+        private final Player player;
+        private String worldName;
+        //packed chunk coords -> tick when the chunk can be sent
+        private final Map<Long, Long> readyTicks;
+        //chunks that were ready when this tick started, nearest first
+        private Long[] ready;
+        private int readyIndex;
+
+        PlayerQueue(Player player) {
+            this.player = player;
+            this.readyTicks = new HashMap<>();
+        }
+
+        //the queue is cleared when the player changes worlds, because the client unloads every chunk without an UNLOAD_CHUNK packet
+        synchronized void add(String worldName, long key, long readyTick) {
+            if (!worldName.equals(this.worldName)) {
+                readyTicks.clear();
+                this.worldName = worldName;
+            }
+            readyTicks.put(key, readyTick);
+        }
+
+        synchronized void remove(long key) {
+            readyTicks.remove(key);
+        }
+
+        synchronized int size() {
+            return readyTicks.size();
+        }
+
+        //sorts the chunks that are ready by their distance from the player, and returns whether there are any
+        //only the "farRate" nearest chunks outside of "nearDistance" (if it is set) are included, and the rest stay queued until a later tick
+        synchronized boolean prepare(long tick, int nearDistance, int farRate) {
+            if (!player.getWorld().getName().equals(worldName)) {
+                readyTicks.clear();
+                return false;
+            }
+
+            Location loc = player.getLocation();
+            int playerChunkX = loc.getBlockX() >> 4;
+            int playerChunkZ = loc.getBlockZ() >> 4;
+            Comparator<Long> byDistance = Comparator.comparingLong(key -> {
+                long dx = (int) (key >> 32) - playerChunkX;
+                long dz = (int) (long) key - playerChunkZ;
+                return dx * dx + dz * dz;
+            });
+
+            List<Long> keys = new ArrayList<>();
+            List<Long> far = new ArrayList<>();
+            readyTicks.forEach((key, readyTick) -> {
+                if (readyTick <= tick) {
+                    int distance = Math.max(Math.abs((int) (key >> 32) - playerChunkX), Math.abs((int) (long) key - playerChunkZ));
+                    (nearDistance == 0 || distance <= nearDistance ? keys : far).add(key);
+                }
+            });
+            keys.sort(byDistance);
+
+            //far chunks are picked by repeatedly taking the nearest one, since "farRate" is small and most of them are not sent this tick
+            for (int i = 0; i < farRate && !far.isEmpty(); i++) {
+                Long nearest = Collections.min(far, byDistance);
+                far.remove(nearest);
+                keys.add(nearest);
+            }
+
+            ready = keys.toArray(new Long[0]);
+            readyIndex = 0;
+            return ready.length != 0;
+        }
+
+        //removes and returns the nearest ready chunk, skipping any that were removed or queued again since the tick started, or null if there are none left
+        synchronized Long next(long tick) {
+            while (readyIndex < ready.length) {
+                Long key = ready[readyIndex++];
+                Long readyTick = readyTicks.get(key);
+                if (readyTick != null && readyTick <= tick) {
+                    readyTicks.remove(key);
+                    return key;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import me.mackblue.worldofzombies.util.BlockStateCache;
+import org.bukkit.block.data.BlockData;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//the disguised or actual BlockData that createCustomBlockData() calculated for each custom block id and state of the real block, since the result only depends on those two
+//past "disguise-data-cache-size" entries the least recently used ones are dropped, and everything is dropped when the definitions are reloaded
+public class DisguiseTransformCache {
+
+    private final Map<Long, Result> entries;
+    private final AtomicLong accessClock = new AtomicLong();
+    private volatile int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DisguiseTransformCache() {
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    //sets the maximum number of cached results, where 0 disables the cache
+    public void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(maxSize, 0);
+        evict();
+    }
+
+    //returns the cached result for a custom block and the state id of the real block, or null if it was not calculated yet
+    public Result get(int numericId, boolean disguised, boolean secondBlock, int stateId) {
+        if (maxSize == 0 || numericId < 0) {
+            return null;
+        }
+
+        Result result = entries.get(getKey(numericId, disguised, secondBlock, stateId));
+        if (result == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        result.lastAccess = accessClock.incrementAndGet();
+        return result;
+    }
+
+    //caches a calculated BlockData (null if it could not be calculated) and returns the cached result
+    public Result put(int numericId, boolean disguised, boolean secondBlock, int stateId, BlockData data) {
+        Result result = new Result(data);
+        if (maxSize == 0 || numericId < 0) {
+            return result;
+        }
+
+        result.lastAccess = accessClock.incrementAndGet();
+        entries.put(getKey(numericId, disguised, secondBlock, stateId), result);
+        if (entries.size() > maxSize) {
+            evict();
+        }
+        return result;
+    }
+
+    //drops the least recently used results until the cache is below 90% of its maximum size
+    private synchronized void evict() {
+        int size = entries.size();
+        if (size <= maxSize) {
+            return;
+        }
+
+        List<Map.Entry<Long, Result>> sorted = new ArrayList<>(entries.entrySet());
+        sorted.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        int toEvict = size - maxSize * 9 / 10;
+        for (int i = 0; i < toEvict && i < sorted.size(); i++) {
+            Map.Entry<Long, Result> entry = sorted.get(i);
+            entries.remove(entry.getKey(), entry.getValue());
+        }
+        evictions.add(toEvict);
+    }
+
+    //drops every cached result, which is needed when the custom block definitions are reloaded
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static long getKey(int numericId, boolean disguised, boolean secondBlock, int stateId) {
+        return (long) numericId << 34 | (disguised ? 1L << 33 : 0) | (secondBlock ? 1L << 32 : 0) | (stateId & 0xFFFFFFFFL);
+    }
+
+    //one calculated BlockData with its string and packet data, which are shared and must not be modified
+    public static class Result {
+
+        private final BlockData data;
+        private final String asString;
+        private final WrappedBlockData wrapped;
+        private volatile long lastAccess;
+
+        Result(BlockData data) {
+            this.data = data;
+            this.asString = data == null ? null : data.getAsString();
+            this.wrapped = data == null || data.getMaterial().isEmpty() ? null : BlockStateCache.wrap(data);
+        }
+
+        //returns a new copy of the BlockData, or null if it could not be calculated
+        public BlockData createData() {
+            return data == null ? null : data.clone();
+        }
+
+        //whether the result is a type of air, which means the source disguised-block or actual-block does not exist
+        public boolean isAir() {
+            return data != null && data.getMaterial().isEmpty();
+        }
+
+        public String getAsString() {
+            return asString;
+        }
+
+        //the shared packet data for the BlockData, or null if it could not be calculated or is air
+        public WrappedBlockData getWrapped() {
+            return wrapped;
+        }
+    }
+}
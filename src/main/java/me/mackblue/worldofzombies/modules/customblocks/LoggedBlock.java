@@ -0,0 +1,108 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import java.util.Objects;
+
+//immutable entry for a single logged custom block, which mirrors the keys of a location section in a chunk's database file
+//the id is kept as its numeric id from CustomBlockRegistry, and is only converted back to a string for storage, config paths, and messages
+public class LoggedBlock {
+
+    private final int id;
+    private final boolean secondBlock;
+    private final String disguisedBlock;
+    //the disguise hash of the definition that "disguised-block" was calculated from (see CustomBlockDefinition.getDisguiseHash()), or 0 if it is not known
+    private final int definitionHash;
+
+    public LoggedBlock(String id, boolean secondBlock, String disguisedBlock) {
+        this(CustomBlockRegistry.intern(id), secondBlock, disguisedBlock, 0);
+    }
+
+    public LoggedBlock(String id, boolean secondBlock, String disguisedBlock, int definitionHash) {
+        this(CustomBlockRegistry.intern(id), secondBlock, disguisedBlock, definitionHash);
+    }
+
+    public LoggedBlock(int numericId, boolean secondBlock, String disguisedBlock) {
+        this(numericId, secondBlock, disguisedBlock, 0);
+    }
+
+    public LoggedBlock(int numericId, boolean secondBlock, String disguisedBlock, int definitionHash) {
+        this.id = numericId;
+        this.secondBlock = secondBlock;
+        this.disguisedBlock = disguisedBlock;
+        this.definitionHash = definitionHash;
+    }
+
+    //gets the value for a database path ("id", "secondBlock", "disguised-block", or "definition-hash"), or null if the path is unknown or not set
+    public Object get(String path) {
+        switch (path) {
+            case "id":
+                return getId();
+            case "secondBlock":
+                return secondBlock ? Boolean.TRUE : null;
+            case "disguised-block":
+                return disguisedBlock;
+            case "definition-hash":
+                return definitionHash != 0 ? definitionHash : null;
+            default:
+                return null;
+        }
+    }
+
+    //returns a copy of this entry with the value at a database path changed, or this entry if the path is unknown
+    public LoggedBlock with(String path, Object value) {
+        switch (path) {
+            case "id":
+                return new LoggedBlock(value == null ? null : value.toString(), secondBlock, disguisedBlock, definitionHash);
+            case "secondBlock":
+                return new LoggedBlock(id, value instanceof Boolean && (Boolean) value, disguisedBlock, definitionHash);
+            case "disguised-block":
+                return new LoggedBlock(id, secondBlock, value == null ? null : value.toString(), definitionHash);
+            case "definition-hash":
+                return new LoggedBlock(id, secondBlock, disguisedBlock, value instanceof Number ? ((Number) value).intValue() : 0);
+            default:
+                return this;
+        }
+    }
+
+    //returns a copy of this entry with a recalculated "disguised-block" and the hash of the definition it was calculated from
+    public LoggedBlock withDisguise(String disguisedBlock, int definitionHash) {
+        return new LoggedBlock(id, secondBlock, disguisedBlock, definitionHash);
+    }
+
+    public String getId() {
+        return CustomBlockRegistry.getId(id);
+    }
+
+    public int getNumericId() {
+        return id;
+    }
+
+    public boolean isSecondBlock() {
+        return secondBlock;
+    }
+
+    public String getDisguisedBlock() {
+        return disguisedBlock;
+    }
+
+    public int getDefinitionHash() {
+        return definitionHash;
+    }
+
+    //equal entries share a palette index in a PalettedSection
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LoggedBlock)) {
+            return false;
+        }
+        LoggedBlock other = (LoggedBlock) o;
+        return id == other.id && secondBlock == other.secondBlock && definitionHash == other.definitionHash && Objects.equals(disguisedBlock, other.disguisedBlock);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((id * 31 + (secondBlock ? 1 : 0)) * 31 + Objects.hashCode(disguisedBlock)) * 31 + definitionHash;
+    }
+}
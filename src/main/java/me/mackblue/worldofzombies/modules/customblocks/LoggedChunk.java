@@ -0,0 +1,199 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+//in-memory copy of the custom blocks logged in one chunk, stored as a PalettedSection for each subChunk that has logged blocks
+public class LoggedChunk {
+
+    //versions are shared by all chunks, so a version also tells apart two LoggedChunk objects for the same chunk (like after it is read again)
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final String worldName;
+    private final int chunkX;
+    private final int chunkZ;
+
+    private final Map<Integer, PalettedSection> subChunks;
+    private volatile long lastAccess;
+
+    //replaced with a new version on every change to the logged blocks, and the latest snapshot (null after a change until it is requested again)
+    private long version;
+    private volatile LoggedChunkSnapshot snapshot;
+    //immutable copies of the sections (and their occupancy masks) used by the latest snapshot, which are reused by the next snapshot for subChunks that did not change
+    private final Map<Integer, PalettedSection> snapshotSections;
+    private final Map<Integer, long[]> snapshotOccupancy;
+
+    public LoggedChunk(String worldName, int chunkX, int chunkZ) {
+        this.worldName = worldName;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.subChunks = new TreeMap<>();
+        this.snapshotSections = new HashMap<>();
+        this.snapshotOccupancy = new HashMap<>();
+        this.version = VERSIONS.incrementAndGet();
+    }
+
+    //packs the local coords of a block into its index inside a subChunk (same y, z, x order as a chunk section)
+    public static int getSubChunkIndex(int x, int y, int z) {
+        return (y & 0xF) << 8 | (z & 0xF) << 4 | (x & 0xF);
+    }
+
+    //converts a subChunk index back into absolute block coords
+    public int getX(int index) {
+        return chunkX << 4 | (index & 0xF);
+    }
+
+    public int getY(int subChunkY, int index) {
+        return subChunkY << 4 | (index >> 8 & 0xF);
+    }
+
+    public int getZ(int index) {
+        return chunkZ << 4 | (index >> 4 & 0xF);
+    }
+
+    public synchronized LoggedBlock get(int x, int y, int z) {
+        PalettedSection section = subChunks.get(y >> 4);
+        if (section == null) {
+            return null;
+        }
+        return section.get(getSubChunkIndex(x, y, z));
+    }
+
+    public synchronized void put(int x, int y, int z, LoggedBlock block) {
+        subChunks.computeIfAbsent(y >> 4, k -> new PalettedSection()).set(getSubChunkIndex(x, y, z), block);
+        changed(y >> 4);
+    }
+
+    //removes a logged block and any subChunk that becomes empty, and returns the removed block
+    public synchronized LoggedBlock remove(int x, int y, int z) {
+        PalettedSection section = subChunks.get(y >> 4);
+        if (section == null) {
+            return null;
+        }
+
+        LoggedBlock removed = section.set(getSubChunkIndex(x, y, z), null);
+        if (section.isEmpty()) {
+            subChunks.remove(y >> 4);
+        }
+        if (removed != null) {
+            changed(y >> 4);
+        }
+        return removed;
+    }
+
+    public synchronized boolean isEmpty() {
+        return subChunks.isEmpty();
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (PalettedSection section : subChunks.values()) {
+            size += section.size();
+        }
+        return size;
+    }
+
+    //returns a copy of the subChunk Y values that contain logged blocks
+    public synchronized Set<Integer> getSubChunkYs() {
+        return new TreeSet<>(subChunks.keySet());
+    }
+
+    //returns a copy of a subChunk's section, or an empty section if it has no logged blocks
+    public synchronized PalettedSection getSection(int subChunkY) {
+        PalettedSection section = subChunks.get(subChunkY);
+        return section == null ? new PalettedSection() : section.copy();
+    }
+
+    //replaces a whole subChunk, used when reading stored sections
+    public synchronized void setSection(int subChunkY, PalettedSection section) {
+        if (section.isEmpty()) {
+            subChunks.remove(subChunkY);
+        } else {
+            subChunks.put(subChunkY, section.copy());
+        }
+        changed(subChunkY);
+    }
+
+    //drops the latest snapshot and its copy of a subChunk that was changed
+    private void changed(int subChunkY) {
+        version = VERSIONS.incrementAndGet();
+        snapshot = null;
+        snapshotSections.remove(subChunkY);
+        snapshotOccupancy.remove(subChunkY);
+    }
+
+    //returns an immutable snapshot of the logged blocks, which only takes the lock to rebuild it after a change
+    //sections that did not change since the previous snapshot are shared instead of being copied again
+    public LoggedChunkSnapshot getSnapshot() {
+        LoggedChunkSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (snapshot == null) {
+                subChunks.forEach((subChunkY, section) -> {
+                    PalettedSection copy = snapshotSections.computeIfAbsent(subChunkY, k -> section.copy());
+                    snapshotOccupancy.computeIfAbsent(subChunkY, k -> copy.getOccupancy());
+                });
+                snapshot = LoggedChunkSnapshot.of(version, snapshotSections, snapshotOccupancy);
+            }
+            return snapshot;
+        }
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    //returns a copy of the logged blocks in a subChunk, keyed by their subChunk index
+    public synchronized Map<Integer, LoggedBlock> getSubChunk(int subChunkY) {
+        PalettedSection section = subChunks.get(subChunkY);
+        if (section == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<Integer, LoggedBlock> blocks = new TreeMap<>();
+        for (int index = section.nextIndex(0); index != -1; index = section.nextIndex(index + 1)) {
+            blocks.put(index, section.get(index));
+        }
+        return blocks;
+    }
+
+    //replaces the contents of this chunk with a copy of another chunk's blocks
+    public void copyFrom(LoggedChunk other) {
+        Map<Integer, PalettedSection> copy = new TreeMap<>();
+        synchronized (other) {
+            other.subChunks.forEach((subChunkY, section) -> copy.put(subChunkY, section.copy()));
+        }
+
+        synchronized (this) {
+            subChunks.clear();
+            subChunks.putAll(copy);
+            version = VERSIONS.incrementAndGet();
+            snapshot = null;
+            snapshotSections.clear();
+            snapshotOccupancy.clear();
+        }
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    public void setLastAccess(long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+
+    public String getWorldName() {
+        return worldName;
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+}
@@ -0,0 +1,90 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+//immutable copy of the logged blocks in a LoggedChunk at one version, which packet listeners can read from any thread without locking
+//the sections inside a snapshot are never modified after it is created, so they can be shared between snapshots of the same chunk
+public class LoggedChunkSnapshot {
+
+    public static final LoggedChunkSnapshot EMPTY = new LoggedChunkSnapshot(0, 0, new PalettedSection[0], new long[0][]);
+
+    private final long version;
+    private final int minSubChunkY;
+    private final PalettedSection[] sections;
+    private final long[][] occupancy;
+
+    private LoggedChunkSnapshot(long version, int minSubChunkY, PalettedSection[] sections, long[][] occupancy) {
+        this.version = version;
+        this.minSubChunkY = minSubChunkY;
+        this.sections = sections;
+        this.occupancy = occupancy;
+    }
+
+    //creates a snapshot from sections and their occupancy masks that will not be modified anymore, both keyed by subChunk Y
+    static LoggedChunkSnapshot of(long version, Map<Integer, PalettedSection> sections, Map<Integer, long[]> occupancy) {
+        if (sections.isEmpty()) {
+            return new LoggedChunkSnapshot(version, 0, new PalettedSection[0], new long[0][]);
+        }
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int subChunkY : sections.keySet()) {
+            min = Math.min(min, subChunkY);
+            max = Math.max(max, subChunkY);
+        }
+
+        PalettedSection[] sectionArray = new PalettedSection[max - min + 1];
+        long[][] occupancyArray = new long[max - min + 1][];
+        for (Map.Entry<Integer, PalettedSection> entry : sections.entrySet()) {
+            sectionArray[entry.getKey() - min] = entry.getValue();
+            occupancyArray[entry.getKey() - min] = occupancy.get(entry.getKey());
+        }
+        return new LoggedChunkSnapshot(version, min, sectionArray, occupancyArray);
+    }
+
+    public LoggedBlock get(int x, int y, int z) {
+        PalettedSection section = getSection(y >> 4);
+        return section == null ? null : section.get(LoggedChunk.getSubChunkIndex(x, y, z));
+    }
+
+    //returns the shared section for a subChunk, or null if it has no logged blocks - the section must not be modified
+    public PalettedSection getSection(int subChunkY) {
+        int i = subChunkY - minSubChunkY;
+        return i >= 0 && i < sections.length ? sections[i] : null;
+    }
+
+    //returns the shared occupancy mask for a subChunk (see PalettedSection.getOccupancy()), or null if it has no logged blocks - the mask must not be modified
+    public long[] getOccupancy(int subChunkY) {
+        int i = subChunkY - minSubChunkY;
+        return i >= 0 && i < occupancy.length ? occupancy[i] : null;
+    }
+
+    public static boolean isOccupied(long[] occupancy, int index) {
+        return (occupancy[index >> 6] & 1L << index) != 0;
+    }
+
+    public boolean isEmpty() {
+        return sections.length == 0;
+    }
+
+    //changes every time the chunk is changed and is never reused by another chunk, so two snapshots with equal versions have the same contents
+    public long getVersion() {
+        return version;
+    }
+
+    //whether every logged block matches a condition, which is checked once for each distinct block instead of for every position
+    public boolean allMatch(Predicate<LoggedBlock> condition) {
+        for (PalettedSection section : sections) {
+            if (section == null) {
+                continue;
+            }
+            for (LoggedBlock block : section.getPalette()) {
+                if (!condition.test(block) && section.contains(block)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,176 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import me.mackblue.worldofzombies.util.BlockStateProperties;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.*;
+
+//a "disguised-match-states" or "actual-match-states" section compiled into flat arrays, with its sections in the order they are checked (each section followed by its children)
+//each section checks one state of the real block, and if it matches, either its BlockData is used or its children are checked next, otherwise everything inside it is skipped
+//state names and values are numbered when the definition is loaded, so checking a section is one int comparison
+public class MatchStateTree {
+
+    private static final MatchStateTree EMPTY = new MatchStateTree(null, "", "", new ArrayList<>());
+
+    //the state names that are checked anywhere in the tree, indexed by slot
+    private final String[] slotNames;
+    //lowercase value name -> value id
+    private final Map<String, Integer> valueIds;
+
+    //for each section: the slot of the state it checks, the id of the value it needs, the index after everything inside it, and what it results in (null to check its children)
+    private final int[] slots;
+    private final int[] values;
+    private final int[] skips;
+    private final Result[] results;
+    private final Result[] results2;
+
+    //messages for results that could not be parsed, which are logged once when the definition is loaded
+    private final List<String> errors;
+
+    private MatchStateTree(ConfigurationSection section, String id, String resultPath, List<String> errors) {
+        List<ConfigurationSection> sections = new ArrayList<>();
+        List<Integer> skips = new ArrayList<>();
+        flatten(section, sections, skips);
+
+        List<String> slotNames = new ArrayList<>();
+        this.valueIds = new HashMap<>();
+        this.slots = new int[sections.size()];
+        this.values = new int[sections.size()];
+        this.skips = new int[sections.size()];
+        this.results = new Result[sections.size()];
+        this.results2 = new Result[sections.size()];
+
+        String tree = resultPath.startsWith("disguised") ? "disguised-match-states" : "actual-match-states";
+        for (int i = 0; i < sections.size(); i++) {
+            ConfigurationSection node = sections.get(i);
+
+            //removes extra digits from the end of a state name
+            String name = node.getName();
+            while (name.length() > 1 && Character.isDigit(name.charAt(name.length() - 1))) {
+                name = name.substring(0, name.length() - 1);
+            }
+            if (!slotNames.contains(name)) {
+                slotNames.add(name);
+            }
+            slots[i] = slotNames.indexOf(name);
+            values[i] = valueIds.computeIfAbsent(node.get("state").toString().toLowerCase(), k -> valueIds.size());
+            this.skips[i] = skips.get(i);
+
+            Result result = compileResult(node, resultPath, id, tree, errors);
+            Result result2 = compileResult(node, resultPath + "2", id, tree, errors);
+            results[i] = result;
+            //second blocks without their own BlockData use the first block's, but are still synced with the second block's sync-states
+            results2[i] = result2 != null || result == null ? result2 : new Result(result.getBlockData(), CustomBlockDefinition.resolveSyncStates(node, true, true), result.getPath());
+        }
+
+        this.slotNames = slotNames.toArray(new String[0]);
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    //compiles the match-states section at a path of a definition's block section, which can be missing
+    public static MatchStateTree compile(ConfigurationSection section, String id, String resultPath) {
+        if (section == null) {
+            return EMPTY;
+        }
+        return new MatchStateTree(section, id, resultPath, new ArrayList<>());
+    }
+
+    //adds the children of a section that have a "state" in the order they are checked, with the index after each child's subtree
+    private static void flatten(ConfigurationSection section, List<ConfigurationSection> sections, List<Integer> skips) {
+        if (section == null) {
+            return;
+        }
+
+        for (String key : section.getKeys(false)) {
+            ConfigurationSection child = section.getConfigurationSection(key);
+            if (child != null && child.contains("state")) {
+                int index = sections.size();
+                sections.add(child);
+                skips.add(-1);
+                flatten(child, sections, skips);
+                skips.set(index, sections.size());
+            }
+        }
+    }
+
+    private static Result compileResult(ConfigurationSection node, String path, String id, String tree, List<String> errors) {
+        ParsedBlockData data = ParsedBlockData.parse(node.getString(path));
+        if (data == null) {
+            return null;
+        }
+
+        if (!data.isValid()) {
+            errors.add("Could not load the disguised BlockData in the \"" + tree + "\" section of the custom block \"" + id + "\" because the BlockData at \"" + node.getCurrentPath() + "." + path + "\" is invalid");
+        }
+        //match-states results are always synced with the disguised sync-states paths
+        return new Result(data, CustomBlockDefinition.resolveSyncStates(node, true, path.endsWith("2")), node.getCurrentPath() + "." + path);
+    }
+
+    //finds the result of the first section whose state and all of its parents' states match a block state handle (NMS IBlockData), or null if nothing matches
+    //sections whose BlockData is invalid are treated as if they did not match
+    public Result evaluate(Object handle, boolean secondBlock) {
+        if (slots.length == 0) {
+            return null;
+        }
+
+        //value id of each slot for this state, where -1 means the state does not have that value or the value is never checked, and -2 means not read yet
+        int[] actual = new int[slotNames.length];
+        Arrays.fill(actual, -2);
+        Result[] nodeResults = secondBlock ? results2 : results;
+
+        int i = 0;
+        while (i < slots.length) {
+            int slot = slots[i];
+            if (actual[slot] == -2) {
+                String value = BlockStateProperties.get(handle, slotNames[slot]);
+                actual[slot] = value == null ? -1 : valueIds.getOrDefault(value.toLowerCase(), -1);
+            }
+
+            if (actual[slot] != values[i]) {
+                i = skips[i];
+            } else if (nodeResults[i] == null) {
+                i++;
+            } else if (!nodeResults[i].getBlockData().isValid()) {
+                i = skips[i];
+            } else {
+                return nodeResults[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return slots.length == 0;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    //the BlockData of a matching section, with the sync-states that apply to it
+    public static class Result {
+
+        private final ParsedBlockData blockData;
+        private final List<String> syncStates;
+        private final String path;
+
+        Result(ParsedBlockData blockData, List<String> syncStates, String path) {
+            this.blockData = blockData;
+            this.syncStates = syncStates;
+            this.path = path;
+        }
+
+        public ParsedBlockData getBlockData() {
+            return blockData;
+        }
+
+        public List<String> getSyncStates() {
+            return syncStates;
+        }
+
+        //the full path of the BlockData in the definition file, for messages
+        public String getPath() {
+            return path;
+        }
+    }
+}
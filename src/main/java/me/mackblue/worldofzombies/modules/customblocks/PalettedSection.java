@@ -0,0 +1,240 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import java.util.*;
+
+//logged blocks in one 16x16x16 subChunk, stored as a palette of distinct LoggedBlocks and a bit-packed array of 4096 palette indexes
+//palette index 0 is always "no logged block", and indexes never span two longs (the same packing as a 1.16 chunk section)
+//this class is not thread-safe, so LoggedChunk handles synchronization
+public class PalettedSection {
+
+    public static final int SIZE = 4096;
+    private static final int MAX_BITS = 13;
+
+    private final List<LoggedBlock> palette;
+    private final Map<LoggedBlock, Integer> paletteIndexes;
+    private int bits;
+    private long[] data;
+    private int count;
+
+    public PalettedSection() {
+        this.palette = new ArrayList<>();
+        this.paletteIndexes = new HashMap<>();
+        this.palette.add(null);
+        this.bits = 1;
+        this.data = new long[getDataLength(bits)];
+    }
+
+    //creates a section from stored data, where "palette" does not include the empty entry at index 0
+    public PalettedSection(List<LoggedBlock> palette, int bits, long[] data) {
+        this();
+        if (bits < 1 || bits > MAX_BITS || data.length != getDataLength(bits) || palette.size() >= 1 << bits) {
+            throw new IllegalArgumentException("invalid section data with " + palette.size() + " palette entries, " + bits + " bits, and " + data.length + " longs");
+        }
+
+        for (LoggedBlock block : palette) {
+            paletteIndexes.putIfAbsent(block, this.palette.size());
+            this.palette.add(block);
+        }
+        this.bits = bits;
+        this.data = data.clone();
+
+        for (int index = 0; index < SIZE; index++) {
+            int paletteIndex = getPaletteIndex(index);
+            if (paletteIndex >= this.palette.size()) {
+                throw new IllegalArgumentException("palette index " + paletteIndex + " is out of bounds");
+            }
+            if (paletteIndex != 0) {
+                count++;
+            }
+        }
+    }
+
+    private PalettedSection(PalettedSection other) {
+        this.palette = new ArrayList<>(other.palette);
+        this.paletteIndexes = new HashMap<>(other.paletteIndexes);
+        this.bits = other.bits;
+        this.data = other.data.clone();
+        this.count = other.count;
+    }
+
+    private static int getDataLength(int bits) {
+        int valuesPerLong = 64 / bits;
+        return (SIZE + valuesPerLong - 1) / valuesPerLong;
+    }
+
+    private int getPaletteIndex(int index) {
+        int valuesPerLong = 64 / bits;
+        return (int) (data[index / valuesPerLong] >>> (index % valuesPerLong * bits) & ((1L << bits) - 1));
+    }
+
+    private void setPaletteIndex(int index, int paletteIndex) {
+        int valuesPerLong = 64 / bits;
+        int shift = index % valuesPerLong * bits;
+        long mask = ((1L << bits) - 1) << shift;
+        data[index / valuesPerLong] = data[index / valuesPerLong] & ~mask | (long) paletteIndex << shift;
+    }
+
+    public LoggedBlock get(int index) {
+        return palette.get(getPaletteIndex(index));
+    }
+
+    //sets the block at an index (or removes it if block is null) and returns the previous block
+    public LoggedBlock set(int index, LoggedBlock block) {
+        //the palette may be repacked while adding the new block, so the previous index is read afterwards
+        int paletteIndex = block == null ? 0 : getOrAddPaletteEntry(block);
+        int previousIndex = getPaletteIndex(index);
+        setPaletteIndex(index, paletteIndex);
+
+        if (previousIndex == 0 && paletteIndex != 0) {
+            count++;
+        } else if (previousIndex != 0 && paletteIndex == 0) {
+            count--;
+        }
+        return palette.get(previousIndex);
+    }
+
+    //gets the palette index for a block, adding it to the palette and compacting or widening the data if the palette is full
+    private int getOrAddPaletteEntry(LoggedBlock block) {
+        Integer paletteIndex = paletteIndexes.get(block);
+        if (paletteIndex != null) {
+            return paletteIndex;
+        }
+
+        if (palette.size() >= 1 << bits) {
+            repack(true);
+            if (palette.size() >= 1 << bits) {
+                repack(false);
+            }
+        }
+        paletteIndexes.put(block, palette.size());
+        palette.add(block);
+        return palette.size() - 1;
+    }
+
+    //rebuilds the data, either dropping unused palette entries (keeping the same size) or using one more bit per index
+    private void repack(boolean compact) {
+        int[] indexes = new int[SIZE];
+        int[] remap = new int[palette.size()];
+        boolean[] used = new boolean[palette.size()];
+        for (int index = 0; index < SIZE; index++) {
+            indexes[index] = getPaletteIndex(index);
+            used[indexes[index]] = true;
+        }
+
+        if (compact) {
+            List<LoggedBlock> oldPalette = new ArrayList<>(palette);
+            palette.clear();
+            paletteIndexes.clear();
+            palette.add(null);
+            for (int i = 1; i < oldPalette.size(); i++) {
+                if (used[i]) {
+                    remap[i] = palette.size();
+                    paletteIndexes.putIfAbsent(oldPalette.get(i), palette.size());
+                    palette.add(oldPalette.get(i));
+                }
+            }
+        } else {
+            for (int i = 0; i < remap.length; i++) {
+                remap[i] = i;
+            }
+            bits = Math.min(bits + 1, MAX_BITS);
+        }
+
+        data = new long[getDataLength(bits)];
+        for (int index = 0; index < SIZE; index++) {
+            if (indexes[index] != 0) {
+                setPaletteIndex(index, remap[indexes[index]]);
+            }
+        }
+    }
+
+    //returns the first index at or after "from" that contains a logged block, or -1 if there are none, skipping empty longs entirely
+    public int nextIndex(int from) {
+        int valuesPerLong = 64 / bits;
+        long mask = (1L << bits) - 1;
+        int index = from;
+        while (index < SIZE) {
+            long value = data[index / valuesPerLong] >>> (index % valuesPerLong * bits);
+            if (value == 0) {
+                index = (index / valuesPerLong + 1) * valuesPerLong;
+            } else if ((value & mask) != 0) {
+                return index;
+            } else {
+                index++;
+            }
+        }
+        return -1;
+    }
+
+    //returns a 4096 bit mask (64 longs, in index order) with a bit set for every index that contains a logged block
+    public long[] getOccupancy() {
+        long[] occupancy = new long[SIZE / 64];
+        for (int index = nextIndex(0); index != -1; index = nextIndex(index + 1)) {
+            occupancy[index >> 6] |= 1L << index;
+        }
+        return occupancy;
+    }
+
+    //whether any index uses a palette entry, since entries are only dropped from the palette when it is repacked
+    public boolean contains(LoggedBlock block) {
+        Integer paletteIndex = paletteIndexes.get(block);
+        if (paletteIndex == null) {
+            return false;
+        }
+
+        for (int index = nextIndex(0); index != -1; index = nextIndex(index + 1)) {
+            if (getPaletteIndex(index) == paletteIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public PalettedSection copy() {
+        return new PalettedSection(this);
+    }
+
+    //returns a copy with unused palette entries removed and the fewest bits per index, which is what gets written to disk
+    public PalettedSection compacted() {
+        PalettedSection copy = copy();
+        copy.repack(true);
+        int neededBits = 1;
+        while (copy.palette.size() > 1 << neededBits) {
+            neededBits++;
+        }
+
+        if (neededBits != copy.bits) {
+            int[] indexes = new int[SIZE];
+            for (int index = 0; index < SIZE; index++) {
+                indexes[index] = copy.getPaletteIndex(index);
+            }
+            copy.bits = neededBits;
+            copy.data = new long[getDataLength(neededBits)];
+            for (int index = 0; index < SIZE; index++) {
+                copy.setPaletteIndex(index, indexes[index]);
+            }
+        }
+        return copy;
+    }
+
+    //the palette without the empty entry at index 0
+    public List<LoggedBlock> getPalette() {
+        return Collections.unmodifiableList(palette.subList(1, palette.size()));
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public long[] getData() {
+        return data.clone();
+    }
+}
@@ -0,0 +1,56 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import me.mackblue.worldofzombies.util.BlockStateCache;
+import org.bukkit.Bukkit;
+import org.bukkit.block.data.BlockData;
+
+//a BlockData string from a custom block definition, parsed once when the definition is loaded
+//the parsed BlockData is never handed out directly because BlockData is mutable, so every caller gets its own copy
+public class ParsedBlockData {
+
+    private final String source;
+    private final BlockData data;
+    //the block state handle (NMS IBlockData) of the data, which is immutable and can be shared
+    private final Object handle;
+
+    private ParsedBlockData(String source, BlockData data) {
+        this.source = source;
+        this.data = data;
+        this.handle = data == null ? null : BlockStateCache.getHandle(data);
+    }
+
+    //parses a BlockData string, or returns null if there is no string (an invalid string is kept so the error can be reported where it is used)
+    public static ParsedBlockData parse(String source) {
+        if (source == null) {
+            return null;
+        }
+
+        try {
+            return new ParsedBlockData(source, Bukkit.createBlockData(source));
+        } catch (IllegalArgumentException e) {
+            return new ParsedBlockData(source, null);
+        }
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public boolean isValid() {
+        return data != null;
+    }
+
+    public boolean isAir() {
+        return data != null && data.getMaterial().isEmpty();
+    }
+
+    //returns the block state handle, or null if the string was invalid
+    public Object getHandle() {
+        return handle;
+    }
+
+    //returns a new copy of the parsed BlockData, or null if the string was invalid
+    public BlockData createData() {
+        return data == null ? null : data.clone();
+    }
+}
@@ -0,0 +1,63 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import me.mackblue.worldofzombies.util.BlockStateCache;
+import me.mackblue.worldofzombies.util.MultiBlockChangeWrap;
+
+//the contents of the MultiBlockChange packet that disguises the logged blocks in one subChunk, which is shared by every player it is sent to
+//positions are packed in the packet's x, z, y order, and neither array may be modified
+public class SectionDisguises {
+
+    private final int chunkX;
+    private final int subChunkY;
+    private final int chunkZ;
+    private final short[] locations;
+    private final WrappedBlockData[] blockData;
+    //the global block state id of each disguise, used to check what players were already sent
+    private final int[] stateIds;
+    //the packet is only built once, the first time this section is sent
+    private volatile PacketContainer packet;
+
+    public SectionDisguises(int chunkX, int subChunkY, int chunkZ, short[] locations, WrappedBlockData[] blockData) {
+        this.chunkX = chunkX;
+        this.subChunkY = subChunkY;
+        this.chunkZ = chunkZ;
+        this.locations = locations;
+        this.blockData = blockData;
+        this.stateIds = new int[blockData.length];
+        for (int i = 0; i < blockData.length; i++) {
+            stateIds[i] = BlockStateCache.getStateId(blockData[i]);
+        }
+    }
+
+    //returns the finished packet for this section, which must be sent without packet listeners (see MultiBlockChangeWrap.sendPacket()) because it is shared
+    public PacketContainer getPacket() {
+        PacketContainer current = packet;
+        if (current == null) {
+            current = MultiBlockChangeWrap.createPacket(chunkX, subChunkY, chunkZ, locations, blockData);
+            packet = current;
+        }
+        return current;
+    }
+
+    public int getSubChunkY() {
+        return subChunkY;
+    }
+
+    public short[] getLocations() {
+        return locations;
+    }
+
+    public WrappedBlockData[] getBlockData() {
+        return blockData;
+    }
+
+    public int[] getStateIds() {
+        return stateIds;
+    }
+
+    public int size() {
+        return locations.length;
+    }
+}
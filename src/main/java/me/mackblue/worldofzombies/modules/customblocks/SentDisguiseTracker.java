@@ -0,0 +1,206 @@
+package me.mackblue.worldofzombies.modules.customblocks;
+
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+//remembers which block state each player's client was last sent for the custom blocks in every chunk it has loaded, so packets that would not change anything can be skipped
+//a chunk is forgotten whenever the client replaces or unloads it, and positions are forgotten whenever the client may change them on its own (like when breaking a block)
+public class SentDisguiseTracker {
+
+    private static final int UNKNOWN = -1;
+
+    //player uuid -> packed chunk coords -> sent states in that chunk
+    private final Map<UUID, Map<Long, ChunkStates>> players;
+
+    //disguises that were about to be sent, and how many of those were skipped because the client already had them
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    public SentDisguiseTracker() {
+        this.players = new ConcurrentHashMap<>();
+    }
+
+    //records a disguise that is being sent to a player, and returns true if the client already had it (in which case it does not have to be sent)
+    public boolean update(Player player, int x, int y, int z, int stateId) {
+        checked.increment();
+        Map<Long, ChunkStates> chunks = players.computeIfAbsent(player.getUniqueId(), k -> new HashMap<>());
+        synchronized (chunks) {
+            ChunkStates states = chunks.computeIfAbsent(CustomBlockDatabase.getChunkKey(x >> 4, z >> 4), k -> new ChunkStates());
+            if (states.put(getKey(x, y, z), stateId) == stateId) {
+                suppressed.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    //returns whether a player's client already has every disguise in a section, without recording anything
+    public boolean hasAll(Player player, int chunkX, int subChunkY, int chunkZ, short[] locations, int[] stateIds) {
+        Map<Long, ChunkStates> chunks = players.get(player.getUniqueId());
+        if (chunks == null) {
+            return false;
+        }
+
+        synchronized (chunks) {
+            ChunkStates states = chunks.get(CustomBlockDatabase.getChunkKey(chunkX, chunkZ));
+            if (states == null) {
+                return false;
+            }
+            for (int i = 0; i < locations.length; i++) {
+                //packet positions are packed as x, z, y
+                int key = (subChunkY << 4 | (locations[i] & 0xF)) << 8 | (locations[i] >> 4 & 0xF) << 4 | (locations[i] >> 8 & 0xF);
+                if (states.get(key) != stateIds[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    //counts a section that was skipped with hasAll()
+    public void countSuppressed(int disguises) {
+        checked.add(disguises);
+        suppressed.add(disguises);
+    }
+
+    //forgets what a player's client has at one position, like when it is sent something that is not a disguise
+    public void forget(Player player, int x, int y, int z) {
+        Map<Long, ChunkStates> chunks = players.get(player.getUniqueId());
+        if (chunks != null) {
+            synchronized (chunks) {
+                ChunkStates states = chunks.get(CustomBlockDatabase.getChunkKey(x >> 4, z >> 4));
+                if (states != null) {
+                    states.put(getKey(x, y, z), UNKNOWN);
+                }
+            }
+        }
+    }
+
+    //forgets a chunk for a player, like when the client is sent the chunk again or unloads it
+    public void forgetChunk(Player player, int chunkX, int chunkZ) {
+        Map<Long, ChunkStates> chunks = players.get(player.getUniqueId());
+        if (chunks != null) {
+            synchronized (chunks) {
+                chunks.remove(CustomBlockDatabase.getChunkKey(chunkX, chunkZ));
+            }
+        }
+    }
+
+    //forgets the chunks within "radius" chunks of a chunk for a player
+    public void forgetChunks(Player player, int chunkX, int chunkZ, int radius) {
+        for (int x = chunkX - radius; x <= chunkX + radius; x++) {
+            for (int z = chunkZ - radius; z <= chunkZ + radius; z++) {
+                forgetChunk(player, x, z);
+            }
+        }
+    }
+
+    //forgets every chunk for a player, like when they leave or the client replaces its whole world
+    public void forgetPlayer(Player player) {
+        players.remove(player.getUniqueId());
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<Long, ChunkStates> chunks : players.values()) {
+            synchronized (chunks) {
+                size += chunks.size();
+            }
+        }
+        return size;
+    }
+
+    public long getChecked() {
+        return checked.sum();
+    }
+
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    //packs the coords of a block into its index inside a chunk (y, z, x order)
+    private static int getKey(int x, int y, int z) {
+        return (y & 0xFF) << 8 | (z & 0xF) << 4 | (x & 0xF);
+    }
+
+    //open-addressed map from a block's index inside a chunk to the state id that was sent for it, where forgotten positions keep their key with an UNKNOWN state
+    private static class ChunkStates {
+
+        private int[] keys;
+        private int[] values;
+        private int size;
+
+        ChunkStates() {
+            keys = new int[16];
+            values = new int[16];
+            Arrays.fill(keys, -1);
+        }
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; keys[slot] != -1; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return UNKNOWN;
+        }
+
+        //sets the state for a key and returns the previous one
+        int put(int key, int value) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            for (; keys[slot] != -1; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    int previous = values[slot];
+                    values[slot] = value;
+                    return previous;
+                }
+            }
+
+            if (value == UNKNOWN) {
+                return UNKNOWN;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size * 4 > keys.length * 3) {
+                grow();
+            }
+            return UNKNOWN;
+        }
+
+        //doubles the table (or rebuilds it at the same size if enough positions were forgotten), dropping forgotten positions
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            int known = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != -1 && oldValues[i] != UNKNOWN) {
+                    known++;
+                }
+            }
+
+            int length = known * 2 > oldKeys.length ? oldKeys.length * 2 : oldKeys.length;
+            keys = new int[length];
+            values = new int[length];
+            Arrays.fill(keys, -1);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != -1 && oldValues[i] != UNKNOWN) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(int key) {
+            int hash = key * 0x9E3779B9;
+            return hash ^ hash >>> 16;
+        }
+    }
+}
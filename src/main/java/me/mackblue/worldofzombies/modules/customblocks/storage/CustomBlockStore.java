@@ -0,0 +1,66 @@
+package me.mackblue.worldofzombies.modules.customblocks.storage;
+
+import me.mackblue.worldofzombies.modules.customblocks.LoggedBlock;
+import me.mackblue.worldofzombies.modules.customblocks.LoggedChunk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+//storage backend for the custom blocks logged in a single world
+//single-block operations default to loading, editing, and saving the whole chunk, which backends can override with something cheaper
+public interface CustomBlockStore extends Closeable {
+
+    //the name of this format as used by "database-format" in custom-blocks.yml
+    String getFormat();
+
+    String getWorldName();
+
+    //reads all of the logged blocks in a chunk, returning an empty LoggedChunk if the chunk has no data
+    LoggedChunk loadChunk(int chunkX, int chunkZ) throws IOException;
+
+    //replaces the stored data for a chunk with the contents of a LoggedChunk, removing the chunk's data if it is empty
+    void saveChunk(LoggedChunk chunk) throws IOException;
+
+    //returns the packed coords (see CustomBlockDatabase#getChunkKey) of every chunk with stored data
+    Collection<Long> getChunkKeys() throws IOException;
+
+    //removes all stored data for this world
+    void deleteAll() throws IOException;
+
+    default LoggedBlock get(int x, int y, int z) throws IOException {
+        return loadChunk(x >> 4, z >> 4).get(x, y, z);
+    }
+
+    default void put(int x, int y, int z, LoggedBlock block) throws IOException {
+        LoggedChunk chunk = loadChunk(x >> 4, z >> 4);
+        chunk.put(x, y, z, block);
+        saveChunk(chunk);
+    }
+
+    default LoggedBlock remove(int x, int y, int z) throws IOException {
+        LoggedChunk chunk = loadChunk(x >> 4, z >> 4);
+        LoggedBlock removed = chunk.remove(x, y, z);
+        if (removed != null) {
+            saveChunk(chunk);
+        }
+        return removed;
+    }
+
+    default void move(int x, int y, int z, int newX, int newY, int newZ) throws IOException {
+        LoggedBlock block = remove(x, y, z);
+        if (block != null) {
+            put(newX, newY, newZ, block);
+        }
+    }
+
+    default void saveChunks(Collection<LoggedChunk> chunks) throws IOException {
+        for (LoggedChunk chunk : chunks) {
+            saveChunk(chunk);
+        }
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,245 @@
+package me.mackblue.worldofzombies.modules.customblocks.storage;
+
+import me.mackblue.worldofzombies.modules.customblocks.CustomBlockDatabase;
+import me.mackblue.worldofzombies.modules.customblocks.LoggedBlock;
+import me.mackblue.worldofzombies.modules.customblocks.LoggedChunk;
+import me.mackblue.worldofzombies.modules.customblocks.PalettedSection;
+import me.mackblue.worldofzombies.util.RegionFile;
+
+import java.io.*;
+import java.util.*;
+
+//binary layout with one "region.X.Z.dat" RegionFile per 32x32 chunks, which stores each subChunk's palette and packed indexes directly
+public class RegionFileStore implements CustomBlockStore {
+
+    private final String worldName;
+    private final File folder;
+    private final Map<File, RegionFile> regionFiles;
+
+    public RegionFileStore(String worldName, File folder) {
+        this.worldName = worldName;
+        this.folder = folder;
+        this.regionFiles = new HashMap<>();
+    }
+
+    @Override
+    public String getFormat() {
+        return "region";
+    }
+
+    @Override
+    public String getWorldName() {
+        return worldName;
+    }
+
+    public File getRegionFile(int chunkX, int chunkZ) {
+        return new File(folder, "region." + RegionFile.getRegionCoord(chunkX) + "." + RegionFile.getRegionCoord(chunkZ) + ".dat");
+    }
+
+    @Override
+    public LoggedChunk loadChunk(int chunkX, int chunkZ) throws IOException {
+        LoggedChunk chunk = new LoggedChunk(worldName, chunkX, chunkZ);
+        RegionFile region = openRegionFile(getRegionFile(chunkX, chunkZ), false);
+        if (region == null) {
+            return chunk;
+        }
+
+        byte[] data = region.read(chunkX, chunkZ);
+        if (data != null) {
+            readChunkData(chunk, new DataInputStream(new ByteArrayInputStream(data)));
+        }
+        return chunk;
+    }
+
+    @Override
+    public void saveChunk(LoggedChunk chunk) throws IOException {
+        File file = getRegionFile(chunk.getChunkX(), chunk.getChunkZ());
+        if (chunk.isEmpty()) {
+            RegionFile region = openRegionFile(file, false);
+            if (region != null) {
+                region.delete(chunk.getChunkX(), chunk.getChunkZ());
+            }
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeChunkData(chunk, new DataOutputStream(bytes));
+        openRegionFile(file, true).write(chunk.getChunkX(), chunk.getChunkZ(), bytes.toByteArray());
+    }
+
+    @Override
+    public Collection<Long> getChunkKeys() throws IOException {
+        List<Long> keys = new ArrayList<>();
+        String[] names = folder.list();
+        if (names == null) {
+            return keys;
+        }
+
+        for (String name : names) {
+            String[] parts = name.split("\\.");
+            if (parts.length != 4 || !parts[0].equals("region") || !parts[3].equals("dat")) {
+                continue;
+            }
+
+            int regionX, regionZ;
+            try {
+                regionX = Integer.parseInt(parts[1]);
+                regionZ = Integer.parseInt(parts[2]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            RegionFile region = openRegionFile(new File(folder, name), false);
+            for (int x = 0; x < 32; x++) {
+                for (int z = 0; z < 32; z++) {
+                    int chunkX = regionX << 5 | x;
+                    int chunkZ = regionZ << 5 | z;
+                    if (region != null && region.hasChunk(chunkX, chunkZ)) {
+                        keys.add(CustomBlockDatabase.getChunkKey(chunkX, chunkZ));
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized void deleteAll() throws IOException {
+        close();
+        String[] names = folder.list();
+        if (names == null) {
+            return;
+        }
+
+        for (String name : names) {
+            File file = new File(folder, name);
+            if (name.startsWith("region.") && name.endsWith(".dat") && !file.delete()) {
+                throw new IOException("Could not delete the file at " + file.getPath());
+            }
+        }
+    }
+
+    //gets an open region file, opening it if needed, or returns null if it does not exist and should not be created
+    private synchronized RegionFile openRegionFile(File file, boolean create) throws IOException {
+        RegionFile region = regionFiles.get(file);
+        if (region == null) {
+            if (!create && !file.exists()) {
+                return null;
+            }
+            region = new RegionFile(file);
+            regionFiles.put(file, region);
+        }
+        return region;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException exception = null;
+        for (RegionFile region : regionFiles.values()) {
+            try {
+                region.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        regionFiles.clear();
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    //binary chunk layout (version 1): version, string table, then one record per subChunk containing its compacted PalettedSection
+    //each palette entry is (id, flags, disguised-block, definition-hash), and is followed by the bits per index and the packed longs
+    private static void writeChunkData(LoggedChunk chunk, DataOutputStream out) throws IOException {
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        Map<Integer, PalettedSection> sections = new TreeMap<>();
+        for (int subChunkY : chunk.getSubChunkYs()) {
+            PalettedSection section = chunk.getSection(subChunkY).compacted();
+            sections.put(subChunkY, section);
+            for (LoggedBlock block : section.getPalette()) {
+                if (stringIndexes.putIfAbsent(block.getId(), strings.size()) == null) {
+                    strings.add(block.getId());
+                }
+                if (block.getDisguisedBlock() != null && stringIndexes.putIfAbsent(block.getDisguisedBlock(), strings.size()) == null) {
+                    strings.add(block.getDisguisedBlock());
+                }
+            }
+        }
+
+        out.writeByte(1);
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+
+        out.writeInt(sections.size());
+        for (Map.Entry<Integer, PalettedSection> entry : sections.entrySet()) {
+            PalettedSection section = entry.getValue();
+            out.writeInt(entry.getKey());
+            out.writeShort(section.getPalette().size());
+            for (LoggedBlock block : section.getPalette()) {
+                out.writeInt(stringIndexes.get(block.getId()));
+                out.writeByte((block.isSecondBlock() ? 1 : 0) | (block.getDisguisedBlock() != null ? 2 : 0) | (block.getDefinitionHash() != 0 ? 4 : 0));
+                if (block.getDisguisedBlock() != null) {
+                    out.writeInt(stringIndexes.get(block.getDisguisedBlock()));
+                }
+                if (block.getDefinitionHash() != 0) {
+                    out.writeInt(block.getDefinitionHash());
+                }
+            }
+
+            out.writeByte(section.getBits());
+            for (long value : section.getData()) {
+                out.writeLong(value);
+            }
+        }
+        out.flush();
+    }
+
+    private static void readChunkData(LoggedChunk chunk, DataInputStream in) throws IOException {
+        int version = in.readByte();
+        if (version != 1) {
+            throw new IOException("unknown chunk data version " + version);
+        }
+
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+
+        int subChunkCount = in.readInt();
+        for (int i = 0; i < subChunkCount; i++) {
+            int subChunkY = in.readInt();
+            int paletteSize = in.readUnsignedShort();
+            List<LoggedBlock> palette = new ArrayList<>(paletteSize);
+            for (int j = 0; j < paletteSize; j++) {
+                palette.add(readBlock(in, strings));
+            }
+
+            int bits = in.readByte();
+            if (bits < 1 || bits > 13) {
+                throw new IOException("invalid bits per index " + bits + " in subChunk " + subChunkY);
+            }
+            long[] data = new long[(PalettedSection.SIZE + 64 / bits - 1) / (64 / bits)];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = in.readLong();
+            }
+
+            try {
+                chunk.setSection(subChunkY, new PalettedSection(palette, bits, data));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("invalid subChunk " + subChunkY + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static LoggedBlock readBlock(DataInputStream in, String[] strings) throws IOException {
+        String id = strings[in.readInt()];
+        int flags = in.readByte();
+        String disguisedBlock = (flags & 2) != 0 ? strings[in.readInt()] : null;
+        int definitionHash = (flags & 4) != 0 ? in.readInt() : 0;
+        return new LoggedBlock(id, (flags & 1) != 0, disguisedBlock, definitionHash);
+    }
+}
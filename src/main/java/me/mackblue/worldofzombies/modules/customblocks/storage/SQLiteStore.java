@@ -0,0 +1,250 @@
+package me.mackblue.worldofzombies.modules.customblocks.storage;
+
+import me.mackblue.worldofzombies.modules.customblocks.CustomBlockDatabase;
+import me.mackblue.worldofzombies.modules.customblocks.LoggedBlock;
+import me.mackblue.worldofzombies.modules.customblocks.LoggedChunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+//embedded single-file database ("blocks.db") using the SQLite driver that is bundled with the server
+//single-block operations are done directly in SQL instead of rewriting the whole chunk
+public class SQLiteStore implements CustomBlockStore {
+
+    private final String worldName;
+    private final File file;
+    private Connection connection;
+
+    public SQLiteStore(String worldName, File folder) {
+        this.worldName = worldName;
+        this.file = new File(folder, "blocks.db");
+    }
+
+    @Override
+    public String getFormat() {
+        return "sqlite";
+    }
+
+    @Override
+    public String getWorldName() {
+        return worldName;
+    }
+
+    //opens the connection and creates the tables the first time the database is used
+    private Connection getConnection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            try {
+                Class.forName("org.sqlite.JDBC");
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("The SQLite driver could not be found", e);
+            }
+
+            file.getParentFile().mkdirs();
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("CREATE TABLE IF NOT EXISTS chunks (chunk_x INTEGER NOT NULL, chunk_z INTEGER NOT NULL, PRIMARY KEY (chunk_x, chunk_z))");
+                statement.execute("CREATE TABLE IF NOT EXISTS blocks (chunk_x INTEGER NOT NULL, chunk_z INTEGER NOT NULL, sub_chunk INTEGER NOT NULL, block_index INTEGER NOT NULL, "
+                        + "id TEXT NOT NULL, second_block INTEGER NOT NULL, disguised_block TEXT, definition_hash INTEGER NOT NULL DEFAULT 0, PRIMARY KEY (chunk_x, chunk_z, sub_chunk, block_index))");
+            }
+        }
+        return connection;
+    }
+
+    @Override
+    public synchronized LoggedChunk loadChunk(int chunkX, int chunkZ) throws IOException {
+        LoggedChunk chunk = new LoggedChunk(worldName, chunkX, chunkZ);
+        if (!file.exists()) {
+            return chunk;
+        }
+
+        try {
+            Connection conn = getConnection();
+            try (PreparedStatement statement = conn.prepareStatement("SELECT sub_chunk, block_index, id, second_block, disguised_block, definition_hash FROM blocks WHERE chunk_x = ? AND chunk_z = ?")) {
+                statement.setInt(1, chunkX);
+                statement.setInt(2, chunkZ);
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        int subChunkY = result.getInt(1);
+                        int index = result.getInt(2);
+                        chunk.put(chunk.getX(index), chunk.getY(subChunkY, index), chunk.getZ(index), new LoggedBlock(result.getString(3), result.getInt(4) != 0, result.getString(5), result.getInt(6)));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return chunk;
+    }
+
+    @Override
+    public synchronized void saveChunk(LoggedChunk chunk) throws IOException {
+        List<LoggedChunk> chunks = new ArrayList<>();
+        chunks.add(chunk);
+        saveChunks(chunks);
+    }
+
+    //replaces every chunk in a single transaction
+    @Override
+    public synchronized void saveChunks(Collection<LoggedChunk> chunks) throws IOException {
+        try {
+            Connection conn = getConnection();
+            conn.setAutoCommit(false);
+            try (PreparedStatement deleteBlocks = conn.prepareStatement("DELETE FROM blocks WHERE chunk_x = ? AND chunk_z = ?");
+                 PreparedStatement deleteChunk = conn.prepareStatement("DELETE FROM chunks WHERE chunk_x = ? AND chunk_z = ?");
+                 PreparedStatement insertChunk = conn.prepareStatement("INSERT INTO chunks (chunk_x, chunk_z) VALUES (?, ?)");
+                 PreparedStatement insertBlock = conn.prepareStatement("INSERT INTO blocks (chunk_x, chunk_z, sub_chunk, block_index, id, second_block, disguised_block, definition_hash) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+
+                for (LoggedChunk chunk : chunks) {
+                    int chunkX = chunk.getChunkX();
+                    int chunkZ = chunk.getChunkZ();
+                    deleteBlocks.setInt(1, chunkX);
+                    deleteBlocks.setInt(2, chunkZ);
+                    deleteBlocks.executeUpdate();
+                    deleteChunk.setInt(1, chunkX);
+                    deleteChunk.setInt(2, chunkZ);
+                    deleteChunk.executeUpdate();
+
+                    if (chunk.isEmpty()) {
+                        continue;
+                    }
+
+                    insertChunk.setInt(1, chunkX);
+                    insertChunk.setInt(2, chunkZ);
+                    insertChunk.executeUpdate();
+
+                    for (int subChunkY : chunk.getSubChunkYs()) {
+                        for (Map.Entry<Integer, LoggedBlock> entry : chunk.getSubChunk(subChunkY).entrySet()) {
+                            setBlockParameters(insertBlock, chunkX, chunkZ, subChunkY, entry.getKey(), entry.getValue());
+                            insertBlock.addBatch();
+                        }
+                    }
+                    insertBlock.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized LoggedBlock get(int x, int y, int z) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (PreparedStatement statement = getConnection().prepareStatement("SELECT id, second_block, disguised_block, definition_hash FROM blocks WHERE chunk_x = ? AND chunk_z = ? AND sub_chunk = ? AND block_index = ?")) {
+            setPositionParameters(statement, x, y, z);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? new LoggedBlock(result.getString(1), result.getInt(2) != 0, result.getString(3), result.getInt(4)) : null;
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void put(int x, int y, int z, LoggedBlock block) throws IOException {
+        try {
+            Connection conn = getConnection();
+            try (PreparedStatement insertChunk = conn.prepareStatement("INSERT OR IGNORE INTO chunks (chunk_x, chunk_z) VALUES (?, ?)");
+                 PreparedStatement insertBlock = conn.prepareStatement("INSERT OR REPLACE INTO blocks (chunk_x, chunk_z, sub_chunk, block_index, id, second_block, disguised_block, definition_hash) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                insertChunk.setInt(1, x >> 4);
+                insertChunk.setInt(2, z >> 4);
+                insertChunk.executeUpdate();
+
+                setBlockParameters(insertBlock, x >> 4, z >> 4, y >> 4, LoggedChunk.getSubChunkIndex(x, y, z), block);
+                insertBlock.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized LoggedBlock remove(int x, int y, int z) throws IOException {
+        LoggedBlock block = get(x, y, z);
+        if (block == null) {
+            return null;
+        }
+
+        try (PreparedStatement statement = getConnection().prepareStatement("DELETE FROM blocks WHERE chunk_x = ? AND chunk_z = ? AND sub_chunk = ? AND block_index = ?")) {
+            setPositionParameters(statement, x, y, z);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return block;
+    }
+
+    @Override
+    public synchronized Collection<Long> getChunkKeys() throws IOException {
+        List<Long> keys = new ArrayList<>();
+        if (!file.exists()) {
+            return keys;
+        }
+
+        try (Statement statement = getConnection().createStatement();
+             ResultSet result = statement.executeQuery("SELECT chunk_x, chunk_z FROM chunks")) {
+            while (result.next()) {
+                keys.add(CustomBlockDatabase.getChunkKey(result.getInt(1), result.getInt(2)));
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized void deleteAll() throws IOException {
+        close();
+        for (File dbFile : new File[] {file, new File(file.getPath() + "-wal"), new File(file.getPath() + "-shm")}) {
+            if (dbFile.exists() && !dbFile.delete()) {
+                throw new IOException("Could not delete the file at " + dbFile.getPath());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                connection = null;
+            }
+        }
+    }
+
+    private static void setPositionParameters(PreparedStatement statement, int x, int y, int z) throws SQLException {
+        statement.setInt(1, x >> 4);
+        statement.setInt(2, z >> 4);
+        statement.setInt(3, y >> 4);
+        statement.setInt(4, LoggedChunk.getSubChunkIndex(x, y, z));
+    }
+
+    private static void setBlockParameters(PreparedStatement statement, int chunkX, int chunkZ, int subChunkY, int index, LoggedBlock block) throws SQLException {
+        statement.setInt(1, chunkX);
+        statement.setInt(2, chunkZ);
+        statement.setInt(3, subChunkY);
+        statement.setInt(4, index);
+        statement.setString(5, block.getId());
+        statement.setInt(6, block.isSecondBlock() ? 1 : 0);
+        statement.setString(7, block.getDisguisedBlock());
+        statement.setInt(8, block.getDefinitionHash());
+    }
+}
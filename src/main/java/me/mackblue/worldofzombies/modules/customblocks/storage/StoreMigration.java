@@ -0,0 +1,226 @@
+package me.mackblue.worldofzombies.modules.customblocks.storage;
+
+import me.mackblue.worldofzombies.modules.customblocks.CustomBlockDatabase;
+import me.mackblue.worldofzombies.modules.customblocks.LoggedChunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+//copies every chunk from one store into another in parallel, only holding a small batch of chunks per worker in memory at a time
+//the target store should be empty, and neither store should be changed by anything else while the migration runs
+public class StoreMigration {
+
+    //number of chunks that each worker reads before writing them to the target store together
+    private static final int BATCH_SIZE = 64;
+    //minimum time (in milliseconds) between progress reports
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    private final CustomBlockStore source;
+    private final CustomBlockStore target;
+    private final int threads;
+    private final Consumer<String> progress;
+
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private volatile long lastProgress;
+    private long startTime;
+    private int totalChunks;
+
+    public StoreMigration(CustomBlockStore source, CustomBlockStore target, int threads, Consumer<String> progress) {
+        this.source = source;
+        this.target = target;
+        this.threads = Math.max(threads, 1);
+        this.progress = progress;
+    }
+
+    //copies all chunks, then re-reads the target to check that it contains the same number of chunks and blocks as the source
+    public boolean run() throws IOException {
+        long[] keys = source.getChunkKeys().stream().mapToLong(Long::longValue).toArray();
+        totalChunks = keys.length;
+        startTime = System.nanoTime();
+        lastProgress = System.currentTimeMillis();
+        progress.accept("Migrating " + totalChunks + " chunk files in " + source.getWorldName() + " from \"" + source.getFormat() + "\" to \"" + target.getFormat() + "\" using " + threads + " threads");
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new CopyTask(keys, 0, keys.length));
+            target.close();
+
+            double seconds = Math.max((System.nanoTime() - startTime) / 1e9, 0.001);
+            progress.accept(String.format("Copied %d chunks (%d blocks) in %.1f seconds (%.0f chunks/s, %.0f blocks/s), skipped %d empty chunk files",
+                    chunks.sum(), blocks.sum(), seconds, chunks.sum() / seconds, blocks.sum() / seconds, skipped.sum()));
+
+            long[] targetKeys = target.getChunkKeys().stream().mapToLong(Long::longValue).toArray();
+            LongAdder targetBlocks = new LongAdder();
+            pool.invoke(new CountTask(targetKeys, 0, targetKeys.length, targetBlocks));
+
+            if (targetKeys.length != chunks.sum() || targetBlocks.sum() != blocks.sum()) {
+                progress.accept("Verification failed: the \"" + target.getFormat() + "\" store contains " + targetKeys.length + " chunks (" + targetBlocks.sum() + " blocks), but "
+                        + chunks.sum() + " chunks (" + blocks.sum() + " blocks) were copied");
+                return false;
+            }
+            progress.accept("Verified " + targetKeys.length + " chunks (" + targetBlocks.sum() + " blocks) in the \"" + target.getFormat() + "\" store");
+            return true;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(60, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    public long getChunkCount() {
+        return chunks.sum();
+    }
+
+    public long getBlockCount() {
+        return blocks.sum();
+    }
+
+    private void reportProgress() {
+        long now = System.currentTimeMillis();
+        long last = lastProgress;
+        if (now - last >= PROGRESS_INTERVAL && progressUpdated(last, now)) {
+            long done = chunks.sum() + skipped.sum();
+            double seconds = Math.max((System.nanoTime() - startTime) / 1e9, 0.001);
+            progress.accept(String.format("Migrated %d/%d chunks (%.0f%%, %.0f chunks/s, %.0f blocks/s)", done, totalChunks, 100.0 * done / Math.max(totalChunks, 1), done / seconds, blocks.sum() / seconds));
+        }
+    }
+
+    //makes sure only one worker reports each interval
+    private synchronized boolean progressUpdated(long last, long now) {
+        if (lastProgress != last) {
+            return false;
+        }
+        lastProgress = now;
+        return true;
+    }
+
+    private class CopyTask extends RecursiveAction {
+
+        private final long[] keys;
+        private final int from, to;
+
+        CopyTask(long[] keys, int from, int to) {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CopyTask(keys, from, middle), new CopyTask(keys, middle, to));
+                return;
+            }
+
+            try {
+                List<LoggedChunk> batch = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    LoggedChunk chunk = source.loadChunk((int) (keys[i] >> 32), (int) keys[i]);
+                    if (chunk.isEmpty()) {
+                        skipped.increment();
+                        continue;
+                    }
+
+                    LoggedChunk copy = new LoggedChunk(target.getWorldName(), chunk.getChunkX(), chunk.getChunkZ());
+                    copy.copyFrom(chunk);
+                    batch.add(copy);
+                    blocks.add(copy.size());
+                }
+
+                target.saveChunks(batch);
+                chunks.add(batch.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            reportProgress();
+        }
+    }
+
+    private class CountTask extends RecursiveAction {
+
+        private final long[] keys;
+        private final int from, to;
+        private final LongAdder count;
+
+        CountTask(long[] keys, int from, int to, LongAdder count) {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CountTask(keys, from, middle, count), new CountTask(keys, middle, to, count));
+                return;
+            }
+
+            try {
+                for (int i = from; i < to; i++) {
+                    count.add(target.loadChunk((int) (keys[i] >> 32), (int) keys[i]).size());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    //offline entry point for converting a world's database while the server is stopped, run with the plugin and server jars on the classpath:
+    //java -cp WorldOfZombies.jar:server.jar me.mackblue.worldofzombies.modules.customblocks.storage.StoreMigration <BlockDatabase folder> <world> <from format> <to format> [threads]
+    public static void main(String[] args) {
+        if (args.length < 4 || args.length > 5) {
+            System.err.println("Usage: StoreMigration <BlockDatabase folder> <world> <from format> <to format> [threads]");
+            System.exit(2);
+        }
+
+        String worldName = args[1];
+        File folder = new File(args[0], worldName);
+        if (!folder.isDirectory()) {
+            System.err.println("The database folder " + folder.getPath() + " does not exist");
+            System.exit(2);
+        }
+        if (!CustomBlockDatabase.isValidFormat(args[2]) || !CustomBlockDatabase.isValidFormat(args[3]) || args[2].equalsIgnoreCase(args[3])) {
+            System.err.println("The formats must be two different values out of " + CustomBlockDatabase.FORMATS);
+            System.exit(2);
+        }
+        int threads = args.length == 5 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        Logger console = Logger.getLogger("WorldOfZombies");
+        CustomBlockStore source = CustomBlockDatabase.createStore(worldName, folder, args[2], console);
+        CustomBlockStore target = CustomBlockDatabase.createStore(worldName, folder, args[3], console);
+        boolean verified;
+        try {
+            target.deleteAll();
+            verified = new StoreMigration(source, target, threads, System.out::println).run();
+            source.close();
+            target.close();
+            if (verified) {
+                CustomBlockDatabase.writeFormatFile(folder, args[3]);
+                System.out.println("The database for " + worldName + " now uses the \"" + args[3].toLowerCase() + "\" format. The old \"" + args[2].toLowerCase() + "\" files were kept and can be deleted manually");
+            }
+        } catch (IOException e) {
+            System.err.println("The migration failed: " + e.getMessage());
+            verified = false;
+        }
+        System.exit(verified ? 0 : 1);
+    }
+}
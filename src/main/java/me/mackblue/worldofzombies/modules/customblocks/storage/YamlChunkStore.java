@@ -0,0 +1,173 @@
+package me.mackblue.worldofzombies.modules.customblocks.storage;
+
+import me.mackblue.worldofzombies.modules.customblocks.CustomBlockDatabase;
+import me.mackblue.worldofzombies.modules.customblocks.LoggedBlock;
+import me.mackblue.worldofzombies.modules.customblocks.LoggedChunk;
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+//the original database layout, with one "chunk.X.Z.yml" file per chunk and "subChunkY.x_y_z" sections for each block
+public class YamlChunkStore implements CustomBlockStore {
+
+    private final String worldName;
+    private final File folder;
+    private final Logger console;
+
+    public YamlChunkStore(String worldName, File folder, Logger console) {
+        this.worldName = worldName;
+        this.folder = folder;
+        this.console = console;
+    }
+
+    @Override
+    public String getFormat() {
+        return "yaml";
+    }
+
+    @Override
+    public String getWorldName() {
+        return worldName;
+    }
+
+    public File getChunkFile(int chunkX, int chunkZ) {
+        return new File(folder, "chunk." + chunkX + "." + chunkZ + ".yml");
+    }
+
+    //parses a chunk file into a LoggedChunk, and deletes the file if it does not have any "subChunk" sections
+    //files that are not valid YAML are renamed to "chunk.X.Z.yml.invalid" instead, so a later save of the chunk does not overwrite the blocks in them
+    @Override
+    public LoggedChunk loadChunk(int chunkX, int chunkZ) throws IOException {
+        LoggedChunk chunk = new LoggedChunk(worldName, chunkX, chunkZ);
+        File file = getChunkFile(chunkX, chunkZ);
+        if (!file.exists()) {
+            return chunk;
+        }
+
+        String chunkString = worldName + ", " + chunkX + ", " + chunkZ;
+        YamlConfiguration yaml = new YamlConfiguration();
+        try {
+            yaml.load(file);
+        } catch (InvalidConfigurationException e) {
+            File invalidFile = new File(folder, file.getName() + ".invalid");
+            if (!file.renameTo(invalidFile)) {
+                throw new IOException("Could not load or rename the invalid file at " + file.getPath(), e);
+            }
+            console.severe(ChatColor.RED + "The custom blocks in the chunk at " + chunkString + " could not be loaded because its file is invalid, so it was renamed to " + invalidFile.getPath() + ": " + e.getMessage());
+            return chunk;
+        }
+
+        boolean hasSubChunks = false;
+        for (String sectionString : yaml.getKeys(false)) {
+            if (!yaml.isConfigurationSection(sectionString) || !sectionString.startsWith("subChunk")) {
+                continue;
+            }
+            hasSubChunks = true;
+
+            ConfigurationSection subChunkSection = yaml.getConfigurationSection(sectionString);
+            for (String loggedLocationString : subChunkSection.getKeys(false)) {
+                if (!subChunkSection.isConfigurationSection(loggedLocationString)) {
+                    continue;
+                }
+
+                ConfigurationSection locationSection = subChunkSection.getConfigurationSection(loggedLocationString);
+                String[] locParts = loggedLocationString.split("_");
+                String id = locationSection.getString("id");
+                try {
+                    if (locParts.length < 3 || id == null) {
+                        throw new IllegalArgumentException();
+                    }
+
+                    int x = Integer.parseInt(locParts[0]);
+                    int y = Integer.parseInt(locParts[1]);
+                    int z = Integer.parseInt(locParts[2]);
+                    chunk.put(x, y, z, new LoggedBlock(id, locationSection.getBoolean("secondBlock", false), locationSection.getString("disguised-block"), locationSection.getInt("definition-hash", 0)));
+                } catch (IllegalArgumentException e) {
+                    console.severe(ChatColor.RED + "A custom block could not be loaded because the location key \"" + loggedLocationString + "\" or its \"id\" in the chunk at " + chunkString + " is invalid");
+                }
+            }
+        }
+
+        if (!hasSubChunks) {
+            deleteFile(file);
+        }
+        return chunk;
+    }
+
+    //writes a chunk to its file, or deletes the file if the chunk no longer has any logged blocks
+    @Override
+    public void saveChunk(LoggedChunk chunk) throws IOException {
+        File file = getChunkFile(chunk.getChunkX(), chunk.getChunkZ());
+        if (chunk.isEmpty()) {
+            if (file.exists()) {
+                deleteFile(file);
+            }
+            return;
+        }
+
+        YamlConfiguration yaml = new YamlConfiguration();
+        for (int subChunkY : chunk.getSubChunkYs()) {
+            for (Map.Entry<Integer, LoggedBlock> entry : chunk.getSubChunk(subChunkY).entrySet()) {
+                int index = entry.getKey();
+                LoggedBlock block = entry.getValue();
+                String path = "subChunk" + subChunkY + "." + chunk.getX(index) + "_" + chunk.getY(subChunkY, index) + "_" + chunk.getZ(index);
+
+                yaml.set(path + ".id", block.getId());
+                if (block.isSecondBlock()) {
+                    yaml.set(path + ".secondBlock", true);
+                }
+                if (block.getDisguisedBlock() != null) {
+                    yaml.set(path + ".disguised-block", block.getDisguisedBlock());
+                }
+                if (block.getDefinitionHash() != 0) {
+                    yaml.set(path + ".definition-hash", block.getDefinitionHash());
+                }
+            }
+        }
+
+        folder.mkdirs();
+        yaml.save(file);
+    }
+
+    @Override
+    public Collection<Long> getChunkKeys() {
+        List<Long> keys = new ArrayList<>();
+        String[] names = folder.list();
+        if (names == null) {
+            return keys;
+        }
+
+        for (String name : names) {
+            String[] parts = name.split("\\.");
+            if (parts.length == 4 && parts[0].equals("chunk") && parts[3].equals("yml")) {
+                try {
+                    keys.add(CustomBlockDatabase.getChunkKey(Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public void deleteAll() throws IOException {
+        for (long key : getChunkKeys()) {
+            deleteFile(getChunkFile((int) (key >> 32), (int) key));
+        }
+    }
+
+    private void deleteFile(File file) throws IOException {
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete the file at " + file.getPath());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package me.mackblue.worldofzombies.util;
+
+import com.comphenix.protocol.utility.MinecraftReflection;
+import com.comphenix.protocol.wrappers.WrappedBlockData;
+import org.bukkit.Material;
+import org.bukkit.block.data.BlockData;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//shares one WrappedBlockData for every block state, keyed by the global block state id that the client uses, since the number of distinct block states is small and fixed
+//block states in packets are NMS IBlockData "handles", so reading their ids lets packet listeners compare blocks without wrapping them first
+public class BlockStateCache {
+
+    private static final Map<Integer, WrappedBlockData> WRAPPED = new ConcurrentHashMap<>();
+
+    private static Method getCombinedId;
+    private static Method getState;
+    private static Method fromData;
+    private static Class<?> handleArrayClass;
+    private static volatile Set<Integer> airStateIds;
+
+    //returns the shared packet data for a BlockData, which must not be modified because it is used by every caller
+    public static WrappedBlockData wrap(BlockData data) {
+        return fromHandle(getHandle(data));
+    }
+
+    //returns the shared packet data for a block state handle (NMS IBlockData)
+    public static WrappedBlockData fromHandle(Object handle) {
+        return WRAPPED.computeIfAbsent(getStateId(handle), id -> WrappedBlockData.fromHandle(handle));
+    }
+
+    //gets the global block state id of a block state handle (NMS Block.getCombinedId)
+    public static int getStateId(Object handle) {
+        try {
+            if (getCombinedId == null) {
+                getCombinedId = MinecraftReflection.getBlockClass().getMethod("getCombinedId", MinecraftReflection.getIBlockDataClass());
+            }
+            return (int) getCombinedId.invoke(null, handle);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not get the block state id of " + handle, e);
+        }
+    }
+
+    public static int getStateId(WrappedBlockData data) {
+        return getStateId(data.getHandle());
+    }
+
+    //gets the block state handle of a BlockData (CraftBlockData.getState())
+    public static Object getHandle(BlockData data) {
+        try {
+            if (getState == null) {
+                getState = MinecraftReflection.getCraftBukkitClass("block.data.CraftBlockData").getMethod("getState");
+            }
+            return getState.invoke(data);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not get the block state of " + data.getAsString(), e);
+        }
+    }
+
+    //creates a new BlockData for a block state handle (CraftBlockData.fromData())
+    public static BlockData toBlockData(Object handle) {
+        try {
+            if (fromData == null) {
+                fromData = MinecraftReflection.getCraftBukkitClass("block.data.CraftBlockData").getMethod("fromData", MinecraftReflection.getIBlockDataClass());
+            }
+            return (BlockData) fromData.invoke(null, handle);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create the BlockData of " + handle, e);
+        }
+    }
+
+    //returns whether a global block state id is one of the types of air
+    public static boolean isAir(int stateId) {
+        Set<Integer> ids = airStateIds;
+        if (ids == null) {
+            ids = new HashSet<>();
+            for (Material air : new Material[] {Material.AIR, Material.CAVE_AIR, Material.VOID_AIR}) {
+                ids.add(getStateId(getHandle(air.createBlockData())));
+            }
+            airStateIds = ids;
+        }
+        return ids.contains(stateId);
+    }
+
+    public static boolean isAir(Object handle) {
+        return isAir(getStateId(handle));
+    }
+
+    //the NMS IBlockData[] class, which is the type of the block states in a MultiBlockChange packet
+    public static Class<?> getHandleArrayClass() {
+        if (handleArrayClass == null) {
+            handleArrayClass = Array.newInstance(MinecraftReflection.getIBlockDataClass(), 0).getClass();
+        }
+        return handleArrayClass;
+    }
+
+    //creates an array that can be written to a MultiBlockChange packet as its block states
+    public static Object[] newHandleArray(int length) {
+        return (Object[]) Array.newInstance(MinecraftReflection.getIBlockDataClass(), length);
+    }
+}
@@ -0,0 +1,163 @@
+package me.mackblue.worldofzombies.util;
+
+import com.comphenix.protocol.utility.MinecraftReflection;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+//reads and changes single properties (like "facing" or "waterlogged") of block state handles (NMS IBlockData) directly, instead of building and parsing BlockData strings
+//property names are matched exactly, so a name like "facing" never matches part of another property's name
+public class BlockStateProperties {
+
+    //NMS Block -> property name -> property (NMS IBlockState), which is the same for every state of a block
+    private static final Map<Object, Map<String, Object>> PROPERTIES = new ConcurrentHashMap<>();
+    //property -> value name -> value, for properties that are set from config values
+    private static final Map<Object, Map<String, Comparable<?>>> VALUES = new ConcurrentHashMap<>();
+
+    private static Method getBlock;
+    private static Method getStateMap;
+    private static Method set;
+    private static Method getName;
+    private static Method getValues;
+    private static Method getValueName;
+    private static Class<?> namableClass;
+
+    //copies the value of each named property from one state to another and returns the resulting state, skipping properties that the source does not have
+    //throws an IllegalArgumentException if the target does not have one of the properties or cannot have the source's value for it
+    public static Object copy(Object from, Object to, List<String> names) {
+        Map<String, Object> fromProperties = getProperties(from);
+        Map<String, Object> toProperties = getProperties(to);
+        Map<?, ?> fromValues = getStateMap(from);
+
+        Object result = to;
+        for (String name : names) {
+            Object fromProperty = fromProperties.get(name);
+            if (fromProperty == null) {
+                continue;
+            }
+
+            Object toProperty = toProperties.get(name);
+            if (toProperty == null) {
+                throw new IllegalArgumentException("The state \"" + name + "\" does not exist for the target block");
+            }
+            Object value = fromValues.get(fromProperty);
+            //shared properties (like most "facing" properties) always accept each other's values, but others (like "age" with a different max) have to be checked
+            if (toProperty != fromProperty && !getValues(toProperty).contains(value)) {
+                throw new IllegalArgumentException("The value \"" + getValueName(value) + "\" is not valid for the state \"" + name + "\" of the target block");
+            }
+            result = set(result, toProperty, value);
+        }
+        return result;
+    }
+
+    //returns the name of the value of a property, or null if the state does not have that property
+    public static String get(Object handle, String name) {
+        Object property = getProperties(handle).get(name);
+        return property == null ? null : getValueName(getStateMap(handle).get(property));
+    }
+
+    //returns a state with one property set to a value by name, or throws an IllegalArgumentException if the property or value does not exist
+    public static Object set(Object handle, String name, String value) {
+        Object property = getProperties(handle).get(name);
+        if (property == null) {
+            throw new IllegalArgumentException("The state \"" + name + "\" does not exist for this block");
+        }
+
+        Comparable<?> parsed = VALUES.computeIfAbsent(property, p -> {
+            Map<String, Comparable<?>> values = new HashMap<>();
+            for (Object possible : getValues(p)) {
+                values.put(getValueName(possible).toLowerCase(), (Comparable<?>) possible);
+            }
+            return values;
+        }).get(value.toLowerCase());
+        if (parsed == null) {
+            throw new IllegalArgumentException("The value \"" + value + "\" is not valid for the state \"" + name + "\"");
+        }
+        return set(handle, property, parsed);
+    }
+
+    //the properties of a state's block by name
+    public static Map<String, Object> getProperties(Object handle) {
+        try {
+            if (getBlock == null) {
+                getBlock = MinecraftReflection.getIBlockDataClass().getMethod("getBlock");
+            }
+            return PROPERTIES.computeIfAbsent(getBlock.invoke(handle), block -> {
+                Map<String, Object> properties = new HashMap<>();
+                for (Object property : getStateMap(handle).keySet()) {
+                    properties.put(getPropertyName(property), property);
+                }
+                return properties;
+            });
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not get the block of " + handle, e);
+        }
+    }
+
+    private static Map<?, ?> getStateMap(Object handle) {
+        try {
+            if (getStateMap == null) {
+                getStateMap = MinecraftReflection.getIBlockDataClass().getMethod("getStateMap");
+            }
+            return (Map<?, ?>) getStateMap.invoke(handle);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not get the states of " + handle, e);
+        }
+    }
+
+    private static Object set(Object handle, Object property, Object value) {
+        try {
+            if (set == null) {
+                Class<?> propertyClass = MinecraftReflection.getMinecraftClass("IBlockState");
+                for (Method method : MinecraftReflection.getIBlockDataClass().getMethods()) {
+                    if (method.getName().equals("set") && method.getParameterCount() == 2 && method.getParameterTypes()[0] == propertyClass) {
+                        set = method;
+                        break;
+                    }
+                }
+                if (set == null) {
+                    throw new NoSuchMethodException("IBlockData.set(IBlockState, Comparable)");
+                }
+            }
+            return set.invoke(handle, property, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not set a state of " + handle, e);
+        }
+    }
+
+    private static String getPropertyName(Object property) {
+        try {
+            if (getName == null) {
+                getName = MinecraftReflection.getMinecraftClass("IBlockState").getMethod("getName");
+            }
+            return (String) getName.invoke(property);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not get the name of the state " + property, e);
+        }
+    }
+
+    private static Collection<?> getValues(Object property) {
+        try {
+            if (getValues == null) {
+                getValues = MinecraftReflection.getMinecraftClass("IBlockState").getMethod("getValues");
+            }
+            return (Collection<?>) getValues.invoke(property);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not get the values of the state " + property, e);
+        }
+    }
+
+    //the name of a value as it appears in BlockData strings (enum values are named by NMS INamable, and numbers and booleans by their string)
+    private static String getValueName(Object value) {
+        try {
+            if (getValueName == null) {
+                namableClass = MinecraftReflection.getMinecraftClass("INamable");
+                getValueName = namableClass.getMethod("getName");
+            }
+            return namableClass.isInstance(value) ? (String) getValueName.invoke(value) : String.valueOf(value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not get the name of the value " + value, e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package me.mackblue.worldofzombies.util;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+//reads and rewrites the block states in the section data of a 1.16 MAP_CHUNK (ChunkData) packet
+//each section is (short block count, byte bits per block, [VarInt palette size, VarInt palette] if bits <= 8, VarInt long count, longs),
+//where every block is a palette index (or a global state id if there is no palette) in y, z, x order, and indexes never span two longs
+public class ChunkDataRewrite {
+
+    public static final int SECTION_SIZE = 4096;
+    private static final int MAX_PALETTE_BITS = 8;
+
+    public interface SectionRewriter {
+        //changes the global block state ids of one section in place, and returns whether any were changed
+        boolean rewrite(int subChunkY, int[] states);
+    }
+
+    //rewrites the sections in "rewriteMask" (both masks have one bit per subChunk Y) and returns the new data, or null if nothing was changed
+    //throws an IOException if the data could not be read, or if a rewritten section has more states than a palette can hold
+    public static byte[] rewrite(byte[] data, int sectionMask, int rewriteMask, SectionRewriter rewriter) throws IOException {
+        ByteArrayInputStream input = new ByteArrayInputStream(data);
+        DataInputStream in = new DataInputStream(input);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int[] states = new int[SECTION_SIZE];
+        boolean changed = false;
+
+        for (int subChunkY = 0; subChunkY < 16; subChunkY++) {
+            if ((sectionMask & 1 << subChunkY) == 0) {
+                continue;
+            }
+
+            short blockCount = in.readShort();
+            int bits = in.readUnsignedByte();
+            int[] palette = null;
+            if (bits <= MAX_PALETTE_BITS) {
+                palette = new int[readVarInt(in)];
+                for (int i = 0; i < palette.length; i++) {
+                    palette[i] = readVarInt(in);
+                }
+            }
+            long[] longs = new long[readVarInt(in)];
+            for (int i = 0; i < longs.length; i++) {
+                longs[i] = in.readLong();
+            }
+
+            if ((rewriteMask & 1 << subChunkY) != 0) {
+                readStates(states, bits, palette, longs);
+                if (rewriter.rewrite(subChunkY, states)) {
+                    changed = true;
+                    writeSection(out, blockCount, bits, states);
+                    continue;
+                }
+            }
+
+            out.writeShort(blockCount);
+            out.writeByte(bits);
+            if (palette != null) {
+                writeVarInt(out, palette.length);
+                for (int id : palette) {
+                    writeVarInt(out, id);
+                }
+            }
+            writeLongs(out, longs);
+        }
+
+        if (!changed) {
+            return null;
+        }
+
+        //anything after the sections is copied as-is
+        byte[] rest = new byte[input.available()];
+        in.readFully(rest);
+        out.write(rest);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int getDataLength(int bits) {
+        int valuesPerLong = 64 / bits;
+        return (SECTION_SIZE + valuesPerLong - 1) / valuesPerLong;
+    }
+
+    private static void readStates(int[] states, int bits, int[] palette, long[] longs) throws IOException {
+        if (bits < 1 || bits > 32 || longs.length != getDataLength(bits)) {
+            throw new IOException("invalid section data with " + bits + " bits per block and " + longs.length + " longs");
+        }
+
+        int valuesPerLong = 64 / bits;
+        long mask = (1L << bits) - 1;
+        for (int index = 0; index < SECTION_SIZE; index++) {
+            int value = (int) (longs[index / valuesPerLong] >>> (index % valuesPerLong * bits) & mask);
+            if (palette != null) {
+                if (value >= palette.length) {
+                    throw new IOException("palette index " + value + " is out of bounds");
+                }
+                value = palette[value];
+            }
+            states[index] = value;
+        }
+    }
+
+    //writes a section with the smallest palette that fits (at least 4 bits like the server), or with global ids if the section already used them
+    private static void writeSection(DataOutputStream out, short blockCount, int originalBits, int[] states) throws IOException {
+        int[] palette = null;
+        int bits = originalBits;
+        int[] values = states;
+
+        if (originalBits <= MAX_PALETTE_BITS) {
+            Map<Integer, Integer> paletteIndexes = new HashMap<>();
+            values = new int[SECTION_SIZE];
+            for (int index = 0; index < SECTION_SIZE; index++) {
+                Integer paletteIndex = paletteIndexes.get(states[index]);
+                if (paletteIndex == null) {
+                    paletteIndex = paletteIndexes.size();
+                    paletteIndexes.put(states[index], paletteIndex);
+                }
+                values[index] = paletteIndex;
+            }
+
+            if (paletteIndexes.size() > 1 << MAX_PALETTE_BITS) {
+                throw new IOException("a rewritten section has " + paletteIndexes.size() + " block states, which is too many for a palette");
+            }
+            int[] newPalette = new int[paletteIndexes.size()];
+            paletteIndexes.forEach((id, paletteIndex) -> newPalette[paletteIndex] = id);
+            palette = newPalette;
+            bits = Math.max(4, 32 - Integer.numberOfLeadingZeros(palette.length - 1));
+        }
+
+        int valuesPerLong = 64 / bits;
+        long[] longs = new long[getDataLength(bits)];
+        for (int index = 0; index < SECTION_SIZE; index++) {
+            longs[index / valuesPerLong] |= (long) values[index] << (index % valuesPerLong * bits);
+        }
+
+        out.writeShort(blockCount);
+        out.writeByte(bits);
+        if (palette != null) {
+            writeVarInt(out, palette.length);
+            for (int id : palette) {
+                writeVarInt(out, id);
+            }
+        }
+        writeLongs(out, longs);
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] longs) throws IOException {
+        writeVarInt(out, longs.length);
+        for (long value : longs) {
+            out.writeLong(value);
+        }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt is too long");
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
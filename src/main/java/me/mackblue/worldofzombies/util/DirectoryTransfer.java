@@ -0,0 +1,129 @@
+package me.mackblue.worldofzombies.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.function.Consumer;
+
+//directory copy, delete, and rename operations for large database folders, which report their progress and never leave a half-written directory in place
+public class DirectoryTransfer {
+
+    //minimum time (in milliseconds) between progress reports
+    private static final long PROGRESS_INTERVAL = 2000;
+
+    private final Consumer<String> progress;
+    private final String description;
+    private long lastProgress;
+
+    public DirectoryTransfer(String description, Consumer<String> progress) {
+        this.description = description;
+        this.progress = progress;
+        this.lastProgress = System.currentTimeMillis();
+    }
+
+    //copies every file in a directory tree using FileChannel#transferTo, so the data is copied by the OS instead of through Java buffers
+    //hard links are not used because the database stores rewrite their files in place, which would change both copies
+    public void copyDirectory(File from, File to) throws IOException {
+        long totalBytes = getSize(from);
+        long[] copiedBytes = new long[1];
+        copyDirectory(from, to, totalBytes, copiedBytes);
+    }
+
+    private void copyDirectory(File from, File to, long totalBytes, long[] copiedBytes) throws IOException {
+        if (!to.isDirectory() && !to.mkdirs()) {
+            throw new IOException("Could not create the folder " + to.getPath());
+        }
+
+        File[] files = from.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list the files in " + from.getPath());
+        }
+
+        for (File file : files) {
+            File target = new File(to, file.getName());
+            if (file.isDirectory()) {
+                copyDirectory(file, target, totalBytes, copiedBytes);
+                continue;
+            }
+
+            try (FileChannel in = new RandomAccessFile(file, "r").getChannel();
+                 FileChannel out = new RandomAccessFile(target, "rw").getChannel()) {
+                long size = in.size();
+                out.truncate(0);
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+                copiedBytes[0] += size;
+            }
+            report(copiedBytes[0], totalBytes, "bytes copied");
+        }
+    }
+
+    //deletes a directory tree, reporting the number of files deleted
+    public void deleteDirectory(File directory) throws IOException {
+        if (!directory.exists()) {
+            return;
+        }
+        long total = countFiles(directory);
+        long[] deleted = new long[1];
+        deleteDirectory(directory, total, deleted);
+    }
+
+    private void deleteDirectory(File directory, long total, long[] deleted) throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file, total, deleted);
+                } else {
+                    Files.deleteIfExists(file.toPath());
+                    deleted[0]++;
+                    report(deleted[0], total, "files deleted");
+                }
+            }
+        }
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    //renames a file or directory, atomically if the filesystem supports it
+    public static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath());
+        }
+    }
+
+    private void report(long done, long total, String unit) {
+        long now = System.currentTimeMillis();
+        if (now - lastProgress >= PROGRESS_INTERVAL) {
+            lastProgress = now;
+            progress.accept(String.format("%s: %d/%d %s (%.0f%%)", description, done, total, unit, 100.0 * done / Math.max(total, 1)));
+        }
+    }
+
+    private static long getSize(File directory) {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.isDirectory() ? getSize(file) : file.length();
+            }
+        }
+        return size;
+    }
+
+    private static long countFiles(File directory) {
+        long count = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                count += file.isDirectory() ? countFiles(file) : 1;
+            }
+        }
+        return count;
+    }
+}
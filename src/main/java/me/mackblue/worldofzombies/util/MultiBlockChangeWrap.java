@@ -5,26 +5,31 @@ import com.comphenix.protocol.ProtocolManager;
 import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.wrappers.BlockPosition;
 import com.comphenix.protocol.wrappers.WrappedBlockData;
-import org.apache.commons.lang.ArrayUtils;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Player;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 public class MultiBlockChangeWrap {
 
+    private static final int INITIAL_CAPACITY = 64;
+
     private static ProtocolManager pm;
     private static Logger console;
     private static int debug;
 
-    private final PacketContainer packet;
+    //one reusable builder per thread, for code that emits many sections in a row
+    private static final ThreadLocal<MultiBlockChangeWrap> BUILDERS = ThreadLocal.withInitial(MultiBlockChangeWrap::new);
+
     private BlockPosition subChunkPos;
-    private final ArrayList<WrappedBlockData> blockData;
-    private final ArrayList<Short> blockLocs;
+    //the blocks added so far, where only the first "size" entries of each array are used
+    private WrappedBlockData[] blockData;
+    private short[] blockLocs;
+    private int size;
 
     public static void init(ProtocolManager manager, Logger theConsole, int debugMode) {
         pm = manager;
@@ -36,48 +41,56 @@ public class MultiBlockChangeWrap {
         debug = debugMode;
     }
 
-    //creates a new packet and initializes all fields except subChunkPos
+    //returns this thread's reusable builder, emptied and set to the given pre-converted subChunk coords
+    public static MultiBlockChangeWrap reuse(int x, int y, int z) {
+        MultiBlockChangeWrap builder = BUILDERS.get();
+        builder.reset(x, y, z);
+        return builder;
+    }
+
+    //creates an empty builder and initializes all fields except subChunkPos
     public MultiBlockChangeWrap() {
-        packet = pm.createPacket(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
-        blockData = new ArrayList<>();
-        blockLocs = new ArrayList<>();
+        blockData = new WrappedBlockData[INITIAL_CAPACITY];
+        blockLocs = new short[INITIAL_CAPACITY];
     }
 
-    //creates a new packet and initializes all fields - directly uses given pre-converted subChunk coords for subChunkPos
+    //creates an empty builder - directly uses given pre-converted subChunk coords for subChunkPos
     public MultiBlockChangeWrap(int x, int y, int z) {
-        packet = pm.createPacket(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
-        blockData = new ArrayList<>();
-        blockLocs = new ArrayList<>();
+        this();
         subChunkPos = new BlockPosition(x, y, z);
-        packet.getSectionPositions().write(0, subChunkPos);
     }
 
-    //creates a new packet and initializes all fields - converts a given location to subChunk coords for subChunkPos
+    //creates an empty builder - converts a given location to subChunk coords for subChunkPos
     public MultiBlockChangeWrap(Location loc) {
-        packet = pm.createPacket(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
-        blockData = new ArrayList<>();
-        blockLocs = new ArrayList<>();
-        subChunkPos = new BlockPosition(loc.getChunk().getX(), loc.getBlockY() >> 4, loc.getChunk().getZ());
-        packet.getSectionPositions().write(0, subChunkPos);
+        this(loc.getBlockX() >> 4, loc.getBlockY() >> 4, loc.getBlockZ() >> 4);
     }
 
-    //sets subChunkPos to given pre-converted subChunk coords and re-writes to packet
+    //sets subChunkPos to given pre-converted subChunk coords
     public void setSubChunkPos(int x, int y, int z) {
         subChunkPos = new BlockPosition(x, y, z);
-        packet.getSectionPositions().write(0, subChunkPos);
+    }
+
+    //removes every added block (keeping the arrays for the next section) and sets subChunkPos
+    public void reset(int x, int y, int z) {
+        Arrays.fill(blockData, 0, size, null);
+        size = 0;
+        setSubChunkPos(x, y, z);
     }
 
     //adds a BlockData and local subChunk position to the packet fields
     public void addBlock(Location location, BlockData data) {
-        blockData.add(WrappedBlockData.createData(data));
+        addBlock((short) ((location.getBlockX() & 0xF) << 8 | (location.getBlockZ() & 0xF) << 4 | (location.getBlockY() & 0xF)), BlockStateCache.wrap(data));
+    }
 
-        int x = location.getBlockX();
-        x = x & 0xF;
-        int y = location.getBlockY();
-        y = y & 0xF;
-        int z = location.getBlockZ();
-        z = z & 0xF;
-        blockLocs.add((short) (x << 8 | z << 4 | y));
+    //adds pre-converted packet data and a local subChunk position (already packed in x, z, y order) to the packet fields
+    public void addBlock(short location, WrappedBlockData data) {
+        if (size == blockLocs.length) {
+            blockLocs = Arrays.copyOf(blockLocs, size * 2);
+            blockData = Arrays.copyOf(blockData, size * 2);
+        }
+        blockLocs[size] = location;
+        blockData[size] = data;
+        size++;
     }
 
     //NOT USED - subChunkList replaced by file-based logger
@@ -109,50 +122,69 @@ public class MultiBlockChangeWrap {
         }
     }*/
 
-    //writes required fields to the packet, and sends the packet to a player if it has more than 0 blocks
+    //creates a packet for the added blocks and sends it to a player if it has more than 0 blocks
+    //a new packet is created every time because the server encodes sent packets later on its network threads
     public void sendPacket(Player player) {
         if (subChunkPos == null) {
-            console.warning(ChatColor.YELLOW + "Could not send a packet with " + blockData.size() + " blocks to " + player + " because subChunkPos was not initialized");
+            console.warning(ChatColor.YELLOW + "Could not send a packet with " + size + " blocks to " + player + " because subChunkPos was not initialized");
             return;
         }
 
-        //convert ArrayLists into arrays used by packet
-        WrappedBlockData[] blockDataArr = blockData.toArray(new WrappedBlockData[0]);
-        Short[] blockLocsShort = blockLocs.toArray(new Short[0]);
-        short[] blockLocsArr = ArrayUtils.toPrimitive(blockLocsShort);
+        if (size == 0) {
+            if (debug >= 2) {
+                console.warning(ChatColor.YELLOW + "Did not send a packet in the subchunk at " + subChunkPos.getX() + ", " + subChunkPos.getY() + ", " + subChunkPos.getZ() + " to " + player.getName() + " because it was empty");
+            }
+            return;
+        }
 
-        //write arrays to packet
-        packet.getBlockDataArrays().writeSafely(0, blockDataArr);
-        packet.getShortArrays().writeSafely(0, blockLocsArr);
+        if (sendPacket(player, getPacket(), true) && debug >= 1) {
+            console.info(ChatColor.DARK_GREEN + "Sent a packet with " + size + " blocks in the subchunk at " + subChunkPos.getX() + ", " + subChunkPos.getY() + ", " + subChunkPos.getZ() + " to " + player.getName());
+        }
+    }
 
+    //creates a MultiBlockChange packet from finished arrays, which are used by the packet directly (without copying) and so must not be modified afterwards
+    public static PacketContainer createPacket(int x, int y, int z, short[] blockLocs, WrappedBlockData[] blockData) {
+        PacketContainer packet = pm.createPacket(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
+        packet.getSectionPositions().write(0, new BlockPosition(x, y, z));
+        packet.getShortArrays().writeSafely(0, blockLocs);
+        packet.getBlockDataArrays().writeSafely(0, blockData);
+        return packet;
+    }
+
+    //sends a packet to a player and returns whether it was sent
+    //packets that already contain their final disguises and are shared between players are sent without "filters", so packet listeners cannot modify the shared packet
+    public static boolean sendPacket(Player player, PacketContainer packet, boolean filters) {
         try {
-            if (blockData.size() != 0) {
-                pm.sendServerPacket(player, packet);
-                if (debug >= 1) {
-                    console.info(ChatColor.DARK_GREEN + "Sent a packet with " + blockData.size() + " blocks in the subchunk at " + subChunkPos.getX() + ", " + subChunkPos.getY() + ", " + subChunkPos.getZ() + " to " + player.getName());
-                }
-            } else if (debug >= 2) {
-                console.warning(ChatColor.YELLOW + "Did not send a packet in the subchunk at " + subChunkPos.getX() + ", " + subChunkPos.getY() + ", " + subChunkPos.getZ() + " to " + player.getName() + " because it was empty");
-            }
+            pm.sendServerPacket(player, packet, filters);
+            return true;
         } catch (InvocationTargetException e) {
-            console.severe(ChatColor.RED + "An error occurred while trying to send a packet with " + blockData.size() + " blocks in the subchunk at " + subChunkPos.getX() + ", " + subChunkPos.getY() + ", " + subChunkPos.getZ() + " to " + player.getName());
+            BlockPosition pos = packet.getSectionPositions().read(0);
+            console.severe(ChatColor.RED + "An error occurred while trying to send a packet in the subchunk at " + pos.getX() + ", " + pos.getY() + ", " + pos.getZ() + " to " + player.getName());
             e.printStackTrace();
+            return false;
         }
     }
 
+    //creates a new packet with copies of the blocks added so far
     public PacketContainer getPacket() {
-        return packet;
+        return createPacket(subChunkPos.getX(), subChunkPos.getY(), subChunkPos.getZ(), getBlockLocs(), getBlockData());
     }
 
     public BlockPosition getSubChunkPos() {
         return subChunkPos;
     }
 
-    public ArrayList<WrappedBlockData> getBlockData() {
-        return blockData;
+    //returns a copy of the added BlockData
+    public WrappedBlockData[] getBlockData() {
+        return Arrays.copyOf(blockData, size);
+    }
+
+    //returns a copy of the added positions
+    public short[] getBlockLocs() {
+        return Arrays.copyOf(blockLocs, size);
     }
 
-    public ArrayList<Short> getBlockLocs() {
-        return blockLocs;
+    public int size() {
+        return size;
     }
 }
@@ -0,0 +1,193 @@
+package me.mackblue.worldofzombies.util;
+
+import java.io.*;
+import java.util.BitSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+//Anvil-style file that stores compressed data for a 32x32 area of chunks, with a sector table at the start of the file
+//each entry in the table is (sector offset << 8 | sector count), and each chunk's data starts with its length and compression type
+public class RegionFile implements Closeable {
+
+    public static final int SECTOR_SIZE = 4096;
+    public static final int CHUNKS_PER_REGION = 1024;
+    private static final int MAX_SECTORS_PER_CHUNK = 255;
+    private static final byte COMPRESSION_DEFLATE = 2;
+
+    private final File file;
+    private final RandomAccessFile access;
+    private final int[] offsets;
+    private final BitSet usedSectors;
+
+    //opens (or creates) a region file and reads its sector table
+    public RegionFile(File file) throws IOException {
+        this.file = file;
+        this.offsets = new int[CHUNKS_PER_REGION];
+        this.usedSectors = new BitSet();
+
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        access = new RandomAccessFile(file, "rw");
+
+        if (access.length() < SECTOR_SIZE) {
+            access.setLength(SECTOR_SIZE);
+        }
+        if (access.length() % SECTOR_SIZE != 0) {
+            access.setLength((access.length() / SECTOR_SIZE + 1) * SECTOR_SIZE);
+        }
+
+        usedSectors.set(0);
+        access.seek(0);
+        int sectorCount = (int) (access.length() / SECTOR_SIZE);
+        for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+            int offset = access.readInt();
+            int start = offset >> 8;
+            int length = offset & 0xFF;
+            if (offset != 0 && start > 0 && start + length <= sectorCount) {
+                offsets[i] = offset;
+                usedSectors.set(start, start + length);
+            }
+        }
+    }
+
+    public static int getRegionCoord(int chunkCoord) {
+        return chunkCoord >> 5;
+    }
+
+    private static int getIndex(int chunkX, int chunkZ) {
+        return (chunkX & 31) + (chunkZ & 31) * 32;
+    }
+
+    public synchronized boolean hasChunk(int chunkX, int chunkZ) {
+        return offsets[getIndex(chunkX, chunkZ)] != 0;
+    }
+
+    //reads and decompresses the data for a chunk, or returns null if the chunk has no data in this region
+    public synchronized byte[] read(int chunkX, int chunkZ) throws IOException {
+        int offset = offsets[getIndex(chunkX, chunkZ)];
+        if (offset == 0) {
+            return null;
+        }
+
+        access.seek((long) (offset >> 8) * SECTOR_SIZE);
+        int length = access.readInt();
+        if (length <= 1 || length > (offset & 0xFF) * SECTOR_SIZE - 4) {
+            throw new IOException("The data for the chunk at " + chunkX + ", " + chunkZ + " in " + file.getName() + " has an invalid length");
+        }
+
+        byte compression = access.readByte();
+        byte[] data = new byte[length - 1];
+        access.readFully(data);
+
+        if (compression != COMPRESSION_DEFLATE) {
+            throw new IOException("The data for the chunk at " + chunkX + ", " + chunkZ + " in " + file.getName() + " uses an unknown compression type");
+        }
+
+        try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[SECTOR_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    //compresses and writes the data for a chunk, reusing its current sectors if it still fits in them
+    public synchronized void write(int chunkX, int chunkZ, byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 16);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(data);
+        }
+
+        int length = compressed.size() + 1;
+        int sectorsNeeded = (length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        if (sectorsNeeded > MAX_SECTORS_PER_CHUNK) {
+            throw new IOException("The data for the chunk at " + chunkX + ", " + chunkZ + " is too large to be stored in a region file");
+        }
+
+        int index = getIndex(chunkX, chunkZ);
+        int oldOffset = offsets[index];
+        int start;
+        if (oldOffset != 0 && (oldOffset & 0xFF) >= sectorsNeeded) {
+            start = oldOffset >> 8;
+            usedSectors.clear(start + sectorsNeeded, start + (oldOffset & 0xFF));
+        } else {
+            if (oldOffset != 0) {
+                usedSectors.clear(oldOffset >> 8, (oldOffset >> 8) + (oldOffset & 0xFF));
+            }
+            start = findFreeSectors(sectorsNeeded);
+        }
+
+        access.seek((long) start * SECTOR_SIZE);
+        access.writeInt(length);
+        access.writeByte(COMPRESSION_DEFLATE);
+        compressed.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                access.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                access.write(b, off, len);
+            }
+        });
+
+        long end = (long) (start + sectorsNeeded) * SECTOR_SIZE;
+        if (access.length() < end) {
+            access.setLength(end);
+        }
+
+        usedSectors.set(start, start + sectorsNeeded);
+        setOffset(index, start << 8 | sectorsNeeded);
+    }
+
+    //removes the data for a chunk from the sector table and frees its sectors
+    public synchronized void delete(int chunkX, int chunkZ) throws IOException {
+        int index = getIndex(chunkX, chunkZ);
+        int oldOffset = offsets[index];
+        if (oldOffset != 0) {
+            usedSectors.clear(oldOffset >> 8, (oldOffset >> 8) + (oldOffset & 0xFF));
+            setOffset(index, 0);
+        }
+    }
+
+    //returns true if no chunks in this region have any data
+    public synchronized boolean isEmpty() {
+        for (int offset : offsets) {
+            if (offset != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int findFreeSectors(int sectorsNeeded) {
+        int start = usedSectors.nextClearBit(1);
+        while (true) {
+            int nextUsed = usedSectors.nextSetBit(start);
+            if (nextUsed == -1 || nextUsed - start >= sectorsNeeded) {
+                return start;
+            }
+            start = usedSectors.nextClearBit(nextUsed);
+        }
+    }
+
+    private void setOffset(int index, int offset) throws IOException {
+        offsets[index] = offset;
+        access.seek((long) index * 4);
+        access.writeInt(offset);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        access.close();
+    }
+}